@@ -0,0 +1,46 @@
+package com.kefang.backend.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kefang.backend.App;
+
+/**
+ * Starts the backend without its web server against the benchmark database,
+ * {@code -Dbench.datasource.url} (with {@code .username} and {@code .password}),
+ * which defaults to the local testing database.
+ */
+public final class BenchmarkContext {
+
+    static final String URL = System.getProperty("bench.datasource.url",
+            "jdbc:postgresql://localhost:9999/handihand_testing?sslmode=disable");
+
+    static final String USERNAME = System.getProperty("bench.datasource.username", "postgres");
+
+    static final String PASSWORD = System.getProperty("bench.datasource.password", "postgres");
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * @param properties further {@code --name=value} properties, which take
+     *                   precedence over the test settings on the classpath
+     */
+    public static ConfigurableApplicationContext start(String... properties) {
+        List<String> args = new ArrayList<>(List.of("--spring.datasource.url=" + URL,
+                "--spring.datasource.username=" + USERNAME,
+                "--spring.datasource.password=" + PASSWORD,
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=warn",
+                "--videos.change-listener.enabled=false"));
+        args.addAll(List.of(properties));
+        return new SpringApplicationBuilder(App.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run(args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,33 @@
+package com.kefang.backend.benchmark;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Loads a {@link SyntheticCatalogue} into the benchmark database, replacing
+ * its accounts, profiles, videos and video tags:
+ *
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:exec -Dbench.main=com.kefang.backend.benchmark.CatalogueGenerator \
+ *     -Dbench.args="--videos 5000000 --seed 20240711"
+ * </pre>
+ */
+public final class CatalogueGenerator {
+
+    private CatalogueGenerator() {
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options(args);
+        int videos = options.getInt("videos", 1_000_000);
+        long seed = options.getLong("seed", SyntheticCatalogue.SEED);
+
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(BenchmarkContext.URL,
+                BenchmarkContext.USERNAME, BenchmarkContext.PASSWORD);
+        long start = System.nanoTime();
+        SyntheticCatalogue.seed(new JdbcTemplate(dataSource), videos, seed);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("loaded %d videos (seed %d) into %s in %.1f s, %.0f videos/s%n", videos, seed,
+                BenchmarkContext.URL, seconds, videos / seconds);
+    }
+}
@@ -0,0 +1,62 @@
+package com.kefang.backend.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Streams CSV rows into a COPY ... FROM STDIN, flushing every megabyte so
+ * that memory stays flat however many rows are written. Values are written
+ * as they are; callers only pass values without commas, quotes or newlines.
+ * An empty value loads as null.
+ */
+final class CopyWriter implements AutoCloseable {
+
+    private static final int FLUSH_CHARS = 1 << 20;
+
+    private final CopyIn copyIn;
+
+    private final StringBuilder buffer = new StringBuilder(FLUSH_CHARS + 1024);
+
+    private long rows;
+
+    CopyWriter(CopyManager copyManager, String table, String columns) throws SQLException {
+        this.copyIn = copyManager.copyIn("copy " + table + " (" + columns + ") from stdin with (format csv)");
+    }
+
+    void row(Object... values) throws SQLException {
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            if (values[i] != null) {
+                buffer.append(values[i]);
+            }
+        }
+        buffer.append('\n');
+        ++rows;
+        if (buffer.length() >= FLUSH_CHARS) {
+            flush();
+        }
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    private void flush() throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (copyIn.isActive()) {
+            flush();
+            copyIn.endCopy();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.kefang.backend.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kefang.backend.db.entity.Video;
+import com.kefang.backend.db.repository.NewVideo;
+import com.kefang.backend.db.repository.VideoRepository;
+import com.kefang.backend.service.TagDictionary;
+import com.kefang.backend.service.VideoIngestService;
+
+/**
+ * Videos inserted per second, tags included: the bulk ingestion against
+ * {@code CrudRepository.save} one video at a time, each committed on its own,
+ * followed by one insert per video tag. Inserted videos are deleted after each
+ * iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IngestionBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private ConfigurableApplicationContext context;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private VideoRepository videoRepository;
+
+    private VideoIngestService videoIngestService;
+
+    private TagDictionary tagDictionary;
+
+    private final List<NewVideo> videos = new ArrayList<>();
+
+    private long lastIdBefore;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start("--videos.ingest.chunk-size=" + BATCH);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        videoRepository = context.getBean(VideoRepository.class);
+        videoIngestService = context.getBean(VideoIngestService.class);
+        tagDictionary = context.getBean(TagDictionary.class);
+        SyntheticCatalogue.seedTags(jdbcTemplate);
+        tagDictionary.refresh();
+
+        SplittableRandom random = new SplittableRandom(SyntheticCatalogue.SEED);
+        for (int i = 0; i < BATCH; ++i) {
+            List<String> tags = new ArrayList<>();
+            for (int tag = random.nextInt(4); tag > 0; --tag) {
+                tags.add(SyntheticCatalogue.tagWord(random.nextInt(40)));
+            }
+            videos.add(new NewVideo(1L, "GB", SyntheticCatalogue.title(random),
+                    SyntheticCatalogue.description(random), "ingested-" + i + ".mp4", "mp4", 1048576,
+                    "https://storage.cloud.google.com/bench/ingested-" + i + ".mp4",
+                    "https://storage.cloud.google.com/bench/ingested-" + i + ".png", tags));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void markIds() {
+        lastIdBefore = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from video", Long.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteInserted() {
+        jdbcTemplate.update("delete from video where id > ?", lastIdBefore);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Long> bulk() {
+        return videoIngestService.ingest(videos);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Long> saveOneByOne() {
+        List<Long> ids = new ArrayList<>(videos.size());
+        for (NewVideo video : videos) {
+            Video saved = videoRepository.save(new Video(video.accountId(), video.countryCode(), video.title(),
+                    video.description(), video.name(), video.type(), video.size(), video.uploadUrl(),
+                    video.thumbnailUrl(), null, new Date()));
+            for (Integer tagId : tagDictionary.resolve(video.tags())) {
+                jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)", saved.getId(), tagId);
+            }
+            ids.add(saved.getId());
+        }
+        return ids;
+    }
+}
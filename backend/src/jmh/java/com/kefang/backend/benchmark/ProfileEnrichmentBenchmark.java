@@ -0,0 +1,92 @@
+package com.kefang.backend.benchmark;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kefang.backend.db.entity.Profile;
+import com.kefang.backend.db.repository.ProfileCard;
+import com.kefang.backend.db.repository.ProfileRepository;
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.db.repository.VideoRepository;
+import com.kefang.backend.db.repository.VideoSearch;
+
+/**
+ * Attaching author profiles to a page of videos: one set-based query against
+ * one query per video.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProfileEnrichmentBenchmark {
+
+    @Param({ "10", "50" })
+    public int pageSize;
+
+    private ConfigurableApplicationContext context;
+
+    private ProfileRepository profileRepository;
+
+    private List<VideoCard> page;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        SyntheticCatalogue.seed(context.getBean(JdbcTemplate.class), 10_000, SyntheticCatalogue.SEED);
+        profileRepository = context.getBean(ProfileRepository.class);
+        page = context.getBean(VideoRepository.class).search(VideoSearch.of("", "", List.of()).page(pageSize, 0));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Map<Long, ProfileCard> batched() {
+        Set<Long> accountIds = new HashSet<>();
+        for (VideoCard video : page) {
+            accountIds.add(video.accountId());
+        }
+        Map<Long, ProfileCard> profiles = new HashMap<>();
+        for (ProfileCard profile : profileRepository.findNewestCardsByAccountIdIn(accountIds)) {
+            profiles.put(profile.accountId(), profile);
+        }
+        return profiles;
+    }
+
+    @Benchmark
+    public Map<Long, Profile> queryPerVideo() {
+        Map<Long, Profile> profiles = new HashMap<>();
+        for (VideoCard video : page) {
+            List<Profile> candidates = profileRepository.findByAccountId(video.accountId());
+            candidates.sort(Comparator.comparing(Profile::getUpdatedAt).reversed());
+            if (!candidates.isEmpty()) {
+                profiles.put(video.accountId(), candidates.get(0));
+            }
+        }
+        return profiles;
+    }
+}
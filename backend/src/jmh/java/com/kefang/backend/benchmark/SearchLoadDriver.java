@@ -0,0 +1,272 @@
+package com.kefang.backend.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Closed-loop HTTP load against a running backend's /api/videos, replaying a
+ * weighted mix of the queries the frontend issues. Countries and tags are drawn
+ * with the same skew {@link SyntheticCatalogue} loads them with, so run it
+ * against a database filled by {@link CatalogueGenerator}:
+ *
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:exec -Dbench.main=com.kefang.backend.benchmark.SearchLoadDriver \
+ *     -Dbench.args="--url http://localhost:8080 --threads 32 --warmup 10 --duration 60"
+ * </pre>
+ *
+ * Prints per-query-kind throughput and latency percentiles once the run ends.
+ */
+public final class SearchLoadDriver {
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final int CURSOR_WALK_PAGES = 10;
+
+    enum Kind {
+        HOME(35), COUNTRY(20), TAG(12), COUNTRY_TAG(8), KEYWORD(15), DEEP_PAGE(5), CURSOR_WALK(5);
+
+        final int weight;
+
+        Kind(int weight) {
+            this.weight = weight;
+        }
+
+        static Kind pick(SplittableRandom random) {
+            int draw = random.nextInt(100);
+            for (Kind kind : values()) {
+                draw -= kind.weight;
+                if (draw < 0) {
+                    return kind;
+                }
+            }
+            return HOME;
+        }
+    }
+
+    private SearchLoadDriver() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+        String url = options.get("url", "http://localhost:8080");
+        int threads = options.getInt("threads", 16);
+        long warmupNanos = Duration.ofSeconds(options.getLong("warmup", 10)).toNanos();
+        long durationNanos = Duration.ofSeconds(options.getLong("duration", 60)).toNanos();
+        long seed = options.getLong("seed", SyntheticCatalogue.SEED);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        long measureFrom = System.nanoTime() + warmupNanos;
+        long until = measureFrom + durationNanos;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Future<?>[] futures = new Future<?>[threads];
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(client, url, new SplittableRandom(seed * 47 + i), measureFrom, until);
+            futures[i] = executor.submit(workers[i]);
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        report(workers, durationNanos, threads);
+    }
+
+    private static void report(Worker[] workers, long durationNanos, int threads) {
+        double seconds = durationNanos / 1e9;
+        System.out.printf("%d threads, %.0f s measured%n", threads, seconds);
+        System.out.printf("%-12s %9s %9s %9s %9s %9s %9s %7s%n", "kind", "requests", "req/s", "p50 ms", "p95 ms",
+                "p99 ms", "max ms", "errors");
+        Latencies total = new Latencies();
+        long totalErrors = 0;
+        for (Kind kind : Kind.values()) {
+            Latencies merged = new Latencies();
+            long errors = 0;
+            for (Worker worker : workers) {
+                merged.addAll(worker.latencies.get(kind));
+                errors += worker.errors.get(kind)[0];
+            }
+            total.addAll(merged);
+            totalErrors += errors;
+            print(kind.name(), merged, errors, seconds);
+        }
+        print("total", total, totalErrors, seconds);
+    }
+
+    private static void print(String name, Latencies latencies, long errors, double seconds) {
+        long[] sorted = latencies.sorted();
+        System.out.printf("%-12s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d%n", name, sorted.length,
+                sorted.length / seconds, millis(sorted, 0.50), millis(sorted, 0.95), millis(sorted, 0.99),
+                millis(sorted, 1.0), errors);
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static final class Worker implements Callable<Void> {
+
+        private final HttpClient client;
+
+        private final String url;
+
+        private final SplittableRandom random;
+
+        private final long measureFrom;
+
+        private final long until;
+
+        private final Map<Kind, Latencies> latencies = new EnumMap<>(Kind.class);
+
+        private final Map<Kind, long[]> errors = new EnumMap<>(Kind.class);
+
+        private String cursor;
+
+        private int cursorPages;
+
+        private String cursorQuery;
+
+        Worker(HttpClient client, String url, SplittableRandom random, long measureFrom, long until) {
+            this.client = client;
+            this.url = url;
+            this.random = random;
+            this.measureFrom = measureFrom;
+            this.until = until;
+            for (Kind kind : Kind.values()) {
+                latencies.put(kind, new Latencies());
+                errors.put(kind, new long[1]);
+            }
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            long now;
+            while ((now = System.nanoTime()) < until) {
+                Kind kind = Kind.pick(random);
+                HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/api/videos?" + query(kind)))
+                        .timeout(Duration.ofSeconds(30))
+                        .GET()
+                        .build();
+                boolean failed;
+                HttpResponse<byte[]> response = null;
+                try {
+                    response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                    failed = response.statusCode() >= 400;
+                } catch (IOException e) {
+                    failed = true;
+                }
+                long elapsed = System.nanoTime() - now;
+                if (kind == Kind.CURSOR_WALK) {
+                    cursor = failed ? null : response.headers().firstValue("X-Next-Cursor").orElse(null);
+                }
+                if (now >= measureFrom) {
+                    if (failed) {
+                        ++errors.get(kind)[0];
+                    } else {
+                        latencies.get(kind).add(elapsed);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private String query(Kind kind) {
+            String query = switch (kind) {
+                case HOME -> params("", "", "");
+                case COUNTRY -> params(country(), "", "");
+                case TAG -> params("", "", tag());
+                case COUNTRY_TAG -> params(country(), "", tag());
+                case KEYWORD -> params(random.nextBoolean() ? country() : "", keyword(), "");
+                case DEEP_PAGE -> params(country(), "", "") + "&pageNumber=" + (50 + random.nextInt(450));
+                case CURSOR_WALK -> cursorWalk();
+            };
+            return query + "&pageSize=" + PAGE_SIZE;
+        }
+
+        private String cursorWalk() {
+            if (cursor == null || cursorPages >= CURSOR_WALK_PAGES) {
+                cursorQuery = params(random.nextBoolean() ? country() : "", "", "");
+                cursorPages = 0;
+                cursor = "";
+            }
+            ++cursorPages;
+            return cursorQuery + "&cursor=" + cursor;
+        }
+
+        private String country() {
+            return SyntheticCatalogue.COUNTRIES[SyntheticCatalogue.COUNTRY_POPULARITY.sample(random)];
+        }
+
+        private String tag() {
+            return SyntheticCatalogue.tagWord(SyntheticCatalogue.TAG_POPULARITY.sample(random));
+        }
+
+        /**
+         * A prefix of a catalogue word, the way a search-as-you-type box sends it.
+         */
+        private String keyword() {
+            String word = SyntheticCatalogue.WORDS[random.nextInt(SyntheticCatalogue.WORDS.length)];
+            return word.substring(0, Math.min(word.length(), 3 + random.nextInt(4)));
+        }
+
+        private static String params(String countryCode, String keyword, String tags) {
+            return "countryCode=" + encode(countryCode) + "&keyword=" + encode(keyword) + "&tags=" + encode(tags);
+        }
+
+        private static String encode(String value) {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Growable array of latency samples in nanoseconds, kept per worker so the
+     * request loop never contends on a shared recorder.
+     */
+    private static final class Latencies {
+
+        private long[] samples = new long[1024];
+
+        private int size;
+
+        void add(long nanos) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = nanos;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.size; ++i) {
+                add(other.samples[i]);
+            }
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.kefang.backend.benchmark;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kefang.backend.db.repository.VideoTags;
+import com.kefang.backend.service.VideoTagIndex;
+
+/**
+ * Similar videos from the in-memory tag index, over a synthetic catalogue
+ * with the tag and country skew of {@link SyntheticCatalogue}. Prints the heap
+ * the index takes, measured and as estimated for the
+ * {@code videos.similar.index.bytes} gauge. Needs no database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SimilarVideoBenchmark {
+
+    private static final int SOURCES = 1024;
+
+    @Param({ "100000", "1000000" })
+    public int catalogueSize;
+
+    private VideoTagIndex index;
+
+    private VideoTags[] sources;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        long before = usedHeap();
+        index = VideoTagIndex.build(SyntheticCatalogue.videoTags(catalogueSize, SyntheticCatalogue.SEED));
+        long measured = usedHeap() - before;
+        System.out.printf("%n%d videos, %d tags: %.1f MB measured, %.1f MB estimated%n", index.size(),
+                index.tags(), measured / 1e6, index.estimatedBytes() / 1e6);
+
+        sources = new VideoTags[SOURCES];
+        Iterator<VideoTags> videos = SyntheticCatalogue.videoTags(catalogueSize, SyntheticCatalogue.SEED);
+        int stride = catalogueSize / SOURCES;
+        for (int i = 0, id = 1; i < SOURCES; ++id) {
+            VideoTags video = videos.next();
+            if (id > i * stride && video.tagIds().length > 0) {
+                sources[i++] = video;
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Long> anyCountry() {
+        return index.similar(sources[next++ & SOURCES - 1], "", 20);
+    }
+
+    @Benchmark
+    public List<Long> inCountry() {
+        VideoTags source = sources[next++ & SOURCES - 1];
+        return index.similar(source, source.countryCode(), 20);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,286 @@
+package com.kefang.backend.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kefang.backend.db.repository.ProfileCard;
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.db.repository.VideoTags;
+
+/**
+ * Deterministic synthetic catalogue for benchmarks and load tests: the same
+ * seed and size always produce the same accounts, profiles, tags, videos and
+ * video tags.
+ * <p>
+ * Popularity is skewed the way real catalogues are: countries, authors and
+ * tags are drawn from Zipf distributions, and uploads get more frequent
+ * towards the present. Rows are loaded with COPY, so millions of videos take
+ * minutes rather than hours.
+ */
+public final class SyntheticCatalogue {
+
+    public static final long SEED = 20240711L;
+
+    /** ordered from the most to the least active country */
+    public static final String[] COUNTRIES = { "US", "GB", "IN", "DE", "FR", "BR", "JP", "CA", "MX", "IT", "ES", "AU",
+            "NL", "CN", "KR", "SE", "PL", "TR", "ID", "PH", "NG", "ZA", "AR", "CO", "EG", "VN", "TH", "IE", "NZ",
+            "PT" };
+
+    public static final int TAG_COUNT = 200;
+
+    static final String[] WORDS = { "pottery", "knitting", "weaving", "carving", "glass", "leather", "quilting",
+            "embroidery", "basket", "candle", "soap", "jewelry", "paper", "wood", "clay", "bead", "felt", "silk",
+            "dye", "loom" };
+
+    private static final int VIDEOS_PER_ACCOUNT = 20;
+
+    private static final long NEWEST = Instant.parse("2024-07-01T00:00:00Z").toEpochMilli();
+
+    private static final long SPAN_MILLIS = 3L * 365 * 24 * 3600 * 1000;
+
+    static final Zipf COUNTRY_POPULARITY = new Zipf(COUNTRIES.length, 1.2);
+
+    static final Zipf TAG_POPULARITY = new Zipf(TAG_COUNT, 1.0);
+
+    /** rebuilds 'video_count', which the triggers disabled during COPY did not maintain */
+    private static final String RECOUNT = """
+            insert into video_count (country_code, tag_id, videos)
+            select coalesce(v.country_code, ''), 0, count(*)
+            from video v
+            where v.upload_url is not null and v.thumbnail_url is not null
+            group by 1
+            union all
+            select coalesce(v.country_code, ''), vt.tag_id, count(*)
+            from video v join video_tag vt on vt.video_id = v.id
+            where v.upload_url is not null and v.thumbnail_url is not null
+            group by 1, 2
+            """;
+
+    /**
+     * adds the 'video_engagement' rows the disabled triggers did not create,
+     * with scattered made-up counts in place of likes, saves and comments
+     */
+    private static final String ENGAGE = """
+            insert into video_engagement (video_id, created_at, likes, saves, comments)
+            select v.id, v.created_at, v.id * 7919 % 200, v.id * 104729 % 40, v.id * 1299709 % 15
+            from video v
+            """;
+
+    private SyntheticCatalogue() {
+    }
+
+    public static String tagWord(int i) {
+        return "bench-" + WORDS[i % WORDS.length] + "-" + i;
+    }
+
+    /**
+     * Creates the synthetic tags if they are missing, leaving other tags alone.
+     *
+     * @return ids of the synthetic tags, from the most to the least popular
+     */
+    public static List<Integer> seedTags(JdbcTemplate jdbcTemplate) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < TAG_COUNT; ++i) {
+            rows.add(new Object[] { tagWord(i) });
+        }
+        jdbcTemplate.batchUpdate("insert into tag (word) values (?) on conflict (word) do nothing", rows);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < TAG_COUNT; ++i) {
+            ids.add(jdbcTemplate.queryForObject("select id from tag where word = ?", Integer.class, tagWord(i)));
+        }
+        return ids;
+    }
+
+    /**
+     * Country of the account with the given id; every video of the account is
+     * uploaded from there.
+     */
+    public static String accountCountry(long seed, int accountId) {
+        return COUNTRIES[COUNTRY_POPULARITY.sample(new SplittableRandom(seed * 31 + accountId))];
+    }
+
+    /**
+     * Replaces all accounts, profiles, videos and video tags with a catalogue
+     * of {@code videoCount} videos.
+     */
+    public static void seed(JdbcTemplate jdbcTemplate, int videoCount, long seed) {
+        List<Integer> tagIds = seedTags(jdbcTemplate);
+        jdbcTemplate.execute("truncate table video_tag, video, profile, account restart identity cascade");
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            load(connection, videoCount, seed, tagIds);
+            return null;
+        });
+        jdbcTemplate.execute("select setval('account_id_seq', " + accountCount(videoCount) + ")");
+        jdbcTemplate.execute("select setval('video_id_seq', " + Math.max(1, videoCount) + ")");
+        jdbcTemplate.execute("analyze account, profile, video, video_tag, tag");
+        // caches listening for changes have missed the bulk load
+        jdbcTemplate.execute("select pg_notify('video_change', '{\"truncated\": true}')");
+    }
+
+    private static int accountCount(int videoCount) {
+        return Math.max(1, videoCount / VIDEOS_PER_ACCOUNT);
+    }
+
+    private static void load(Connection connection, int videoCount, long seed, List<Integer> tagIds)
+            throws SQLException {
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        int accountCount = accountCount(videoCount);
+        try (Statement statement = connection.createStatement()) {
+            // one change notification per copied row would only flood the listeners
+            statement.execute("alter table video disable trigger user");
+            statement.execute("alter table video_tag disable trigger user");
+        }
+        try {
+            try (CopyWriter accounts = new CopyWriter(copyManager, "account",
+                    "id, identity_type, identity_value, state")) {
+                for (int id = 1; id <= accountCount; ++id) {
+                    accounts.row(id, "email", "bench-" + id + "@example.com", "verified");
+                }
+            }
+            try (CopyWriter profiles = new CopyWriter(copyManager, "profile",
+                    "account_id, country_code, username, updated_at")) {
+                for (int id = 1; id <= accountCount; ++id) {
+                    SplittableRandom random = new SplittableRandom(seed * 37 + id);
+                    String country = accountCountry(seed, id);
+                    long updatedAt = NEWEST - random.nextLong(SPAN_MILLIS);
+                    if (random.nextInt(4) == 0) {
+                        // an outdated profile the enrichment has to skip
+                        profiles.row(id, country, "bench-old-" + id, Instant.ofEpochMilli(updatedAt - 1000));
+                    }
+                    profiles.row(id, country, "bench-" + id, Instant.ofEpochMilli(updatedAt));
+                }
+            }
+
+            Zipf authors = new Zipf(accountCount, 1.1);
+            try (CopyWriter videos = new CopyWriter(copyManager, "video", "id, account_id, country_code, title,"
+                    + " description, name, type, size, upload_url, thumbnail_url, updated_at, created_at")) {
+                for (int id = 1; id <= videoCount; ++id) {
+                    SplittableRandom random = new SplittableRandom(seed * 41 + id);
+                    int accountId = 1 + authors.sample(random);
+                    Instant createdAt = createdAt(id, videoCount);
+                    boolean uploaded = random.nextInt(20) > 0;
+                    videos.row(id, accountId, accountCountry(seed, accountId), title(random), description(random),
+                            "video-" + id + ".mp4", "mp4", 1048576,
+                            uploaded ? "https://storage.cloud.google.com/bench/video-" + id + ".mp4" : null,
+                            "https://storage.cloud.google.com/bench/video-" + id + ".png", createdAt, createdAt);
+                }
+            }
+            try (CopyWriter videoTags = new CopyWriter(copyManager, "video_tag", "video_id, tag_id")) {
+                for (int id = 1; id <= videoCount; ++id) {
+                    for (int tag : tags(new SplittableRandom(seed * 43 + id))) {
+                        videoTags.row(id, tagIds.get(tag));
+                    }
+                }
+            }
+        } finally {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("alter table video enable trigger user");
+                statement.execute("alter table video_tag enable trigger user");
+                statement.execute("delete from video_count");
+                statement.execute(RECOUNT);
+                statement.execute(ENGAGE);
+            }
+        }
+    }
+
+    /**
+     * Upload times spread over three years and grow denser towards the
+     * newest video.
+     */
+    private static Instant createdAt(int videoId, int videoCount) {
+        double age = 1 - (double) videoId / videoCount;
+        return Instant.ofEpochMilli(NEWEST - (long) (SPAN_MILLIS * age * age) - (videoCount - videoId));
+    }
+
+    /**
+     * Distinct popularity ranks of the zero to five tags of a video.
+     */
+    private static List<Integer> tags(SplittableRandom random) {
+        List<Integer> tags = new ArrayList<>();
+        int count = random.nextInt(6);
+        for (int i = 0; i < count; ++i) {
+            int tag = TAG_POPULARITY.sample(random);
+            if (!tags.contains(tag)) {
+                tags.add(tag);
+            }
+        }
+        return tags;
+    }
+
+    static String title(SplittableRandom random) {
+        return capitalize(WORDS[random.nextInt(WORDS.length)]) + " " + WORDS[random.nextInt(WORDS.length)]
+                + " tutorial";
+    }
+
+    static String description(SplittableRandom random) {
+        StringBuilder description = new StringBuilder("Learn");
+        int words = 8 + random.nextInt(24);
+        for (int i = 0; i < words; ++i) {
+            description.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return description.append('.').toString();
+    }
+
+    /**
+     * Builds a page of videos with embedded profiles in memory, without a
+     * database.
+     */
+    public static List<VideoCard> videos(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<VideoCard> videos = new ArrayList<>(count);
+        for (int id = 1; id <= count; ++id) {
+            long accountId = 1 + random.nextInt(count);
+            String countryCode = COUNTRIES[random.nextInt(COUNTRIES.length)];
+            Date createdAt = new Date(NEWEST - id * 60_000L);
+            ProfileCard profile = new ProfileCard(id, accountId, countryCode, "Region", "City", "AB1 2CD",
+                    "1 High Street", null, "bench-" + accountId,
+                    "https://storage.cloud.google.com/bench/photo-" + accountId + ".png", createdAt, createdAt);
+            videos.add(new VideoCard(id, accountId, countryCode, title(random), description(random),
+                    "video-" + id + ".mp4", "mp4", 1048576,
+                    "https://storage.cloud.google.com/bench/video-" + id + ".mp4",
+                    "https://storage.cloud.google.com/bench/video-" + id + ".png", createdAt, createdAt, profile));
+        }
+        return videos;
+    }
+
+    /**
+     * Lazily generates the countries and tags of {@code count} listed videos,
+     * in ascending order of id, tags drawn the way {@link #load} draws them
+     * and numbered by popularity from 1, without a database.
+     */
+    public static Iterator<VideoTags> videoTags(int count, long seed) {
+        return new Iterator<>() {
+
+            private int id;
+
+            @Override
+            public boolean hasNext() {
+                return id < count;
+            }
+
+            @Override
+            public VideoTags next() {
+                SplittableRandom random = new SplittableRandom(seed * 43 + ++id);
+                String countryCode = COUNTRIES[COUNTRY_POPULARITY.sample(random)];
+                int[] tagIds = tags(random).stream().mapToInt(tag -> tag + 1).sorted().toArray();
+                return new VideoTags(id, countryCode, tagIds);
+            }
+        };
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
@@ -0,0 +1,78 @@
+package com.kefang.backend.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kefang.backend.db.entity.Tag;
+import com.kefang.backend.db.repository.TagRepository;
+import com.kefang.backend.service.TagDictionary;
+
+/**
+ * Resolving the tag words of a search: the in-memory dictionary against one
+ * query per word.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagResolutionBenchmark {
+
+    private ConfigurableApplicationContext context;
+
+    private TagDictionary tagDictionary;
+
+    private TagRepository tagRepository;
+
+    private final List<String> words = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        SyntheticCatalogue.seedTags(context.getBean(JdbcTemplate.class));
+        tagDictionary = context.getBean(TagDictionary.class);
+        tagDictionary.refresh();
+        tagRepository = context.getBean(TagRepository.class);
+        for (int i = 0; i < 3; ++i) {
+            words.add(SyntheticCatalogue.tagWord(i * 17));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Integer[] dictionary() {
+        return tagDictionary.resolve(words);
+    }
+
+    @Benchmark
+    public Integer[] queryPerWord() {
+        Integer[] tagIds = new Integer[words.size()];
+        for (int i = 0; i < words.size(); ++i) {
+            List<Tag> tags = tagRepository.findByWord(words.get(i));
+            if (!tags.isEmpty()) {
+                tagIds[i] = (int) tags.get(0).getId();
+            }
+        }
+        return tagIds;
+    }
+}
@@ -0,0 +1,72 @@
+package com.kefang.backend.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kefang.backend.db.repository.TagCount;
+import com.kefang.backend.service.TagSuggestions;
+
+/**
+ * Tag suggestions for a keystroke: the in-memory prefix index against a
+ * LIKE query ranked by the maintained video counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagSuggestionBenchmark {
+
+    @Param({ "b", "bench-gl" })
+    public String prefix;
+
+    private ConfigurableApplicationContext context;
+
+    private TagSuggestions tagSuggestions;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        SyntheticCatalogue.seedTags(jdbcTemplate);
+        tagSuggestions = context.getBean(TagSuggestions.class);
+        tagSuggestions.reload();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<TagCount> index() {
+        return tagSuggestions.suggest(prefix, 10);
+    }
+
+    @Benchmark
+    public List<TagCount> likeQuery() {
+        return jdbcTemplate.query("""
+                select t.word, coalesce(sum(c.videos), 0) videos from tag t
+                left join video_count c on c.tag_id = t.id
+                where lower(t.word) like ? group by t.word order by videos desc, t.word limit 10
+                """, (rs, rowNum) -> new TagCount(rs.getString(1), rs.getLong(2)), prefix.toLowerCase() + "%");
+    }
+}
@@ -0,0 +1,129 @@
+package com.kefang.backend.benchmark;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kefang.backend.db.entity.Video;
+import com.kefang.backend.db.repository.TagMatch;
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.db.repository.VideoRepository;
+import com.kefang.backend.db.repository.VideoSearch;
+import com.kefang.backend.db.repository.VideoSort;
+
+/**
+ * Latency of one search query at several catalogue sizes, bypassing the
+ * result cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VideoSearchBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({ "1000", "10000", "100000" })
+    public int catalogueSize;
+
+    private ConfigurableApplicationContext context;
+
+    private VideoRepository videoRepository;
+
+    private List<Integer> tags;
+
+    private Instant middleCreatedAt;
+
+    private long middleId;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        SyntheticCatalogue.seed(jdbcTemplate, catalogueSize, SyntheticCatalogue.SEED);
+        tags = SyntheticCatalogue.seedTags(jdbcTemplate).subList(0, 2);
+        videoRepository = context.getBean(VideoRepository.class);
+
+        Map<String, Object> middle = jdbcTemplate.queryForMap("""
+                select created_at, id from video where upload_url is not null and thumbnail_url is not null
+                order by created_at desc, id desc offset ? limit 1
+                """, catalogueSize / 2);
+        middleCreatedAt = ((Timestamp) middle.get("created_at")).toInstant();
+        middleId = ((Number) middle.get("id")).longValue();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<VideoCard> newestPage() {
+        return videoRepository.search(VideoSearch.of("", "", List.of()).page(PAGE_SIZE, 0));
+    }
+
+    /**
+     * The newest page as managed entities, to compare allocation with
+     * {@link #newestPage()} under {@code -prof gc}.
+     */
+    @Benchmark
+    public List<Video> newestPageEntities() {
+        return videoRepository.findVideosByCondition("", "", new Integer[0], PAGE_SIZE, 0);
+    }
+
+    @Benchmark
+    public List<VideoCard> countryPage() {
+        return videoRepository.search(VideoSearch.of("GB", "", List.of()).page(PAGE_SIZE, 0));
+    }
+
+    @Benchmark
+    public List<VideoCard> anyTagPage() {
+        return videoRepository.search(VideoSearch.of("", "", tags).page(PAGE_SIZE, 0));
+    }
+
+    @Benchmark
+    public List<VideoCard> allTagsPage() {
+        return videoRepository.search(VideoSearch.of("", "", tags).matching(TagMatch.ALL).page(PAGE_SIZE, 0));
+    }
+
+    @Benchmark
+    public List<VideoCard> keywordPage() {
+        return videoRepository.search(VideoSearch.of("", "glass wea", List.of()).page(PAGE_SIZE, 0));
+    }
+
+    @Benchmark
+    public List<VideoCard> keywordByRelevancePage() {
+        return videoRepository.search(
+                VideoSearch.of("", "glass wea", List.of()).sortedBy(VideoSort.RELEVANCE).page(PAGE_SIZE, 0));
+    }
+
+    @Benchmark
+    public List<VideoCard> middleOffsetPage() {
+        return videoRepository.search(VideoSearch.of("", "", List.of()).page(PAGE_SIZE, catalogueSize / 2));
+    }
+
+    @Benchmark
+    public List<VideoCard> middleCursorPage() {
+        return videoRepository.search(
+                VideoSearch.of("", "", List.of()).page(PAGE_SIZE, 0).after(middleCreatedAt, middleId));
+    }
+}
@@ -2,8 +2,10 @@ package com.kefang.backend;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class App {
 	public static void main(String[] args) {
 		SpringApplication.run(App.class, args);
@@ -0,0 +1,117 @@
+package com.kefang.backend.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kefang.backend.service.CountryRegistry;
+
+@RestController
+public class CountryController {
+
+    private final byte[] json;
+
+    private final byte[] gzipped;
+
+    private final String etag;
+
+    private final String gzippedEtag;
+
+    private final CacheControl cacheControl;
+
+    /**
+     * Renders and compresses the country list once, as it never changes while
+     * the backend runs.
+     */
+    @Autowired
+    public CountryController(CountryRegistry countryRegistry, ObjectMapper objectMapper,
+            @Value("${countries.http-cache.max-age:P1D}") Duration maxAge) throws IOException {
+        this.json = objectMapper.writeValueAsBytes(countryRegistry.all());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 3);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        }
+        this.gzipped = out.toByteArray();
+        String digest = sha256(json);
+        this.etag = "\"" + digest + "\"";
+        // a strong validator names exact bytes, and the two bodies differ
+        this.gzippedEtag = "\"" + digest + "-gzip\"";
+        this.cacheControl = CacheControl.maxAge(maxAge).cachePublic();
+    }
+
+    /**
+     * Lists every country, ordered by name, gzipped when the client accepts
+     * it. The body is the same for every request and revalidates by ETag, one
+     * for each encoding.
+     */
+    @GetMapping("/api/countries")
+    public ResponseEntity<byte[]> getCountries(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, defaultValue = "") String acceptEncoding,
+            WebRequest request) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String tag = gzip ? gzippedEtag : etag;
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(tag);
+        headers.setCacheControl(cacheControl);
+        headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        if (request.checkNotModified(tag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return ResponseEntity.ok().headers(headers).body(gzipped);
+        }
+        return ResponseEntity.ok().headers(headers).body(json);
+    }
+
+    /**
+     * Whether gzip is listed in Accept-Encoding and not refused with q=0.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (!parts[0].trim().equalsIgnoreCase("gzip")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; ++i) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.kefang.backend.controller;
+
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Already encoded UTF-8 JSON, for {@code JsonGenerator.writeRawValue} to copy
+ * into its output buffer as is, without encoding it again.
+ */
+final class JsonFragment extends SerializedString {
+
+    private static final long serialVersionUID = 1L;
+
+    JsonFragment(byte[] utf8) {
+        super(new String(utf8, StandardCharsets.UTF_8));
+        _unquotedUTF8Ref = utf8;
+    }
+}
@@ -0,0 +1,54 @@
+package com.kefang.backend.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.kefang.backend.db.repository.Reaction;
+import com.kefang.backend.db.repository.ReactionType;
+import com.kefang.backend.service.ReactionBuffer;
+
+@RestController
+public class ReactionController {
+
+    private static final String REACTION_PATH = "/api/videos/{videoId}/{type:likes|saves}/{accountId}";
+
+    @Autowired
+    private ReactionBuffer reactionBuffer;
+
+    /**
+     * Likes or saves the video on behalf of the account. Answered with 202
+     * once buffered; the reaction is written, and counted, within a flush
+     * interval. Repeating it has no further effect.
+     */
+    @PutMapping(REACTION_PATH)
+    public ResponseEntity<Void> react(@PathVariable long videoId, @PathVariable String type,
+            @PathVariable long accountId) {
+        return record(videoId, type, accountId, true);
+    }
+
+    /**
+     * Takes back a like or save, like {@link #react} written behind.
+     */
+    @DeleteMapping(REACTION_PATH)
+    public ResponseEntity<Void> unreact(@PathVariable long videoId, @PathVariable String type,
+            @PathVariable long accountId) {
+        return record(videoId, type, accountId, false);
+    }
+
+    private ResponseEntity<Void> record(long videoId, String type, long accountId, boolean added) {
+        if (videoId < 1 || videoId > Integer.MAX_VALUE || accountId < 1 || accountId > Integer.MAX_VALUE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "no such video or account");
+        }
+        Reaction reaction = new Reaction(ReactionType.ofTable(type), accountId, videoId);
+        if (!reactionBuffer.record(reaction, added)) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "too many reactions pending");
+        }
+        return ResponseEntity.accepted().build();
+    }
+}
@@ -0,0 +1,65 @@
+package com.kefang.backend.controller;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import com.kefang.backend.service.SearchConcurrencyLimiter;
+import com.kefang.backend.service.SearchConcurrencyLimiter.Permit;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Admits /api/videos requests through the {@link SearchConcurrencyLimiter}
+ * and answers the ones it refuses with 503 and a Retry-After of
+ * {@code videos.search-limit.retry-after}, before any work is done for them.
+ * Requests that end in a server error count as failed. Of the others only
+ * successful ones that ran a query are sampled, so that 304s, cached pages
+ * and requests refused as invalid do not pass for the latency of a search.
+ */
+@Component
+public class SearchLimitInterceptor implements HandlerInterceptor {
+
+    private static final String PERMIT = SearchLimitInterceptor.class.getName() + ".permit";
+
+    @Autowired
+    private SearchConcurrencyLimiter limiter;
+
+    @Value("${videos.search-limit.retry-after:PT1S}")
+    private Duration retryAfter;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws InterruptedException {
+        Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, retryAfter.toSeconds())));
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "too many searches");
+        }
+        request.setAttribute(PERMIT, permit);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        if (request.getAttribute(PERMIT) instanceof Permit permit) {
+            request.removeAttribute(PERMIT);
+            if (ex != null || response.getStatus() >= 500) {
+                permit.release(true);
+            } else if (permit.isQueried() && HttpStatusCode.valueOf(response.getStatus()).is2xxSuccessful()) {
+                permit.release(false);
+            } else {
+                permit.discard();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.kefang.backend.controller;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.kefang.backend.service.CountryInfo;
+import com.kefang.backend.service.CountryRegistry;
+
+/**
+ * Sends {@code startup.warmup.requests} searches to the application's own
+ * /api/videos once the web server listens, so that the search path is
+ * compiled before the first real request. Application runners complete
+ * before the application reports itself ready, so the readiness probe only
+ * succeeds after the warm-up. Disabled with 0.
+ * <p>
+ * The requests go through HTTP rather than calling the controller, to warm up
+ * the servlet container and JSON serialization as well. They show up in the
+ * search metrics and fill the search caches like any other.
+ */
+@Component
+public class SearchWarmup implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchWarmup.class);
+
+    private static final String[] KEYWORDS = { "", "craft", "hand made" };
+
+    private static final String[] SORTS = { "RECENT", "RELEVANCE", "POPULAR" };
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private CountryRegistry countryRegistry;
+
+    @Value("${startup.warmup.requests:0}")
+    private int requests;
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        // only known once the web server listens, and unset without one
+        String port = environment.getProperty("local.server.port");
+        if (requests <= 0 || port == null) {
+            return;
+        }
+        List<String> countryCodes = new ArrayList<>(List.of(""));
+        List<CountryInfo> countries = countryRegistry.all();
+        for (CountryInfo country : countries.subList(0, Math.min(3, countries.size()))) {
+            countryCodes.add(country.code());
+        }
+        String base = "http://localhost:" + port + "/api/videos?tags=&pageSize=20";
+        HttpClient client = HttpClient.newHttpClient();
+        long start = System.nanoTime();
+        int failed = 0;
+        for (int i = 0; i < requests; ++i) {
+            URI uri = URI.create(base + "&countryCode=" + countryCodes.get(i % countryCodes.size())
+                    + "&keyword=" + KEYWORDS[i / countryCodes.size() % KEYWORDS.length].replace(' ', '+')
+                    + "&sort=" + SORTS[i % SORTS.length] + "&facets=" + (i % 2 == 0));
+            try {
+                HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() != 200) {
+                    ++failed;
+                }
+            } catch (IOException e) {
+                ++failed;
+            }
+        }
+        logger.info("warmed up with {} searches in {} ms, {} failed", requests, (System.nanoTime() - start) / 1000000,
+                failed);
+    }
+}
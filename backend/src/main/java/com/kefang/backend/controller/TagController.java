@@ -0,0 +1,45 @@
+package com.kefang.backend.controller;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.kefang.backend.db.repository.TagCount;
+import com.kefang.backend.service.TagSuggestions;
+
+@RestController
+public class TagController {
+
+    private static final int MAX_SUGGESTIONS = 50;
+
+    @Autowired
+    private TagSuggestions tagSuggestions;
+
+    @Value("${tags.suggest.refresh-interval:PT10S}")
+    private Duration refreshInterval;
+
+    /**
+     * Suggests tags whose words start with the prefix, the ones on most videos
+     * first. Answered from memory; responses may be reused for as long as the
+     * suggestions go without a refresh.
+     */
+    @GetMapping("/api/tags/suggest")
+    public ResponseEntity<List<TagCount>> suggest(
+            @RequestParam(defaultValue = "") String prefix,
+            @RequestParam(defaultValue = "10") int limit) {
+        if (limit <= 0 || limit > MAX_SUGGESTIONS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_SUGGESTIONS);
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.maxAge(refreshInterval).cachePublic())
+                .body(tagSuggestions.suggest(prefix, limit));
+    }
+}
@@ -0,0 +1,117 @@
+package com.kefang.backend.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.service.VideoCardFragments;
+
+/**
+ * Serializes {@link VideoCard}s by splicing their cached JSON from
+ * {@link VideoCardFragments} into the output. Fragments are rendered by
+ * Jackson's own serializer for the record, so the output is byte for byte what
+ * it would be without the cache.
+ * <p>
+ * Writers with the {@link #BYPASS} attribute set serialize as usual without
+ * touching the cache, for output such as exports that would only flush it.
+ */
+@Component
+public class VideoCardJsonModule extends SimpleModule {
+
+    public static final String BYPASS = VideoCardJsonModule.class.getName() + ".bypass";
+
+    @Autowired
+    public VideoCardJsonModule(VideoCardFragments fragments) {
+        super("VideoCardJsonModule");
+        setSerializerModifier(new BeanSerializerModifier() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription description,
+                    JsonSerializer<?> serializer) {
+                if (description.getBeanClass() != VideoCard.class) {
+                    return serializer;
+                }
+                return new FragmentSerializer((JsonSerializer<VideoCard>) serializer, fragments);
+            }
+        });
+    }
+
+    private static final class FragmentSerializer extends StdSerializer<VideoCard>
+            implements ContextualSerializer, ResolvableSerializer {
+
+        private final JsonSerializer<VideoCard> serializer;
+
+        private final VideoCardFragments fragments;
+
+        FragmentSerializer(JsonSerializer<VideoCard> serializer, VideoCardFragments fragments) {
+            super(VideoCard.class);
+            this.serializer = serializer;
+            this.fragments = fragments;
+        }
+
+        @Override
+        public void resolve(SerializerProvider provider) throws JsonMappingException {
+            if (serializer instanceof ResolvableSerializer resolvable) {
+                resolvable.resolve(provider);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property)
+                throws JsonMappingException {
+            if (serializer instanceof ContextualSerializer contextual) {
+                JsonSerializer<?> created = contextual.createContextual(provider, property);
+                if (created != serializer) {
+                    return new FragmentSerializer((JsonSerializer<VideoCard>) created, fragments);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public void serialize(VideoCard video, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            if (provider.getAttribute(BYPASS) != null || generator.getPrettyPrinter() != null) {
+                // indentation depends on where in the output the card lands
+                serializer.serialize(video, generator, provider);
+                return;
+            }
+            SerializableString fragment;
+            try {
+                fragment = fragments.get(video, card -> render(card, generator, provider));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            generator.writeRawValue(fragment);
+        }
+
+        private SerializableString render(VideoCard video, JsonGenerator generator, SerializerProvider provider) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            try (JsonGenerator fragment = generator.getCodec().getFactory().createGenerator(out)) {
+                provider.getConfig().initialize(fragment);
+                serializer.serialize(video, fragment, provider);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new JsonFragment(out.toByteArray());
+        }
+    }
+}
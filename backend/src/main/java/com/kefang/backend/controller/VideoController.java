@@ -1,66 +1,382 @@
 package com.kefang.backend.controller;
 
-import java.util.Comparator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
-import com.kefang.backend.db.entity.Profile;
-import com.kefang.backend.db.entity.Tag;
-import com.kefang.backend.db.entity.Video;
-import com.kefang.backend.db.repository.ProfileRepository;
-import com.kefang.backend.db.repository.TagRepository;
-import com.kefang.backend.db.repository.VideoRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.kefang.backend.db.repository.NewVideo;
+import com.kefang.backend.db.repository.TagMatch;
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.db.repository.VideoSearch;
+import com.kefang.backend.db.repository.VideoSort;
+import com.kefang.backend.service.CatalogueWatermark;
+import com.kefang.backend.service.CountryRegistry;
+import com.kefang.backend.service.TagDictionary;
+import com.kefang.backend.service.VideoBatch;
+import com.kefang.backend.service.VideoFacetService;
+import com.kefang.backend.service.VideoFacets;
+import com.kefang.backend.service.VideoIngestService;
+import com.kefang.backend.service.VideoSearchMetrics;
+import com.kefang.backend.service.VideoSearchMetrics.Stage;
+import com.kefang.backend.service.VideoSearchCoalescer;
+import com.kefang.backend.service.VideoSearchService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 public class VideoController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    @Autowired
+    private VideoSearchService videoSearchService;
+
+    @Autowired
+    private VideoSearchCoalescer videoSearchCoalescer;
+
+    @Autowired
+    private TagDictionary tagDictionary;
+
     @Autowired
-    private VideoRepository videoRepository;
+    private VideoSearchMetrics metrics;
 
     @Autowired
-    private ProfileRepository profileRepository;
+    private ObjectMapper objectMapper;
 
     @Autowired
-    private TagRepository tagRepository;
+    private CatalogueWatermark catalogueWatermark;
+
+    @Autowired
+    private VideoFacetService videoFacetService;
+
+    @Autowired
+    private VideoIngestService videoIngestService;
+
+    @Autowired
+    private CountryRegistry countryRegistry;
+
+    @Value("${videos.export.fetch-size:500}")
+    private int exportFetchSize;
+
+    @Value("${videos.ingest.token:}")
+    private String ingestToken;
 
+    @Value("${videos.http-cache.max-age:PT10S}")
+    private Duration httpCacheMaxAge;
+
+    @Value("${videos.search.maximum-page-size:100}")
+    private int searchMaximumPageSize;
+
+    @Value("${videos.batch.maximum-ids:200}")
+    private int batchMaximumIds;
+
+    @Value("${videos.similar.maximum-limit:50}")
+    private int similarMaximumLimit;
+
+    /**
+     * Searches videos, newest first.
+     * <p>
+     * Pages are addressed by {@code pageNumber} unless a {@code cursor} is
+     * given. Passing an empty cursor starts keyset pagination: every page then
+     * carries the cursor of the next one in the {@value #NEXT_CURSOR_HEADER}
+     * header, which is absent on the last page.
+     * <p>
+     * With {@code tagMatch=ALL} only videos carrying every requested tag are
+     * returned, otherwise any one of them suffices. Words of the keyword match
+     * as prefixes, and {@code sort=RELEVANCE} ranks keyword matches instead of
+     * ordering by upload time. {@code sort=POPULAR} and {@code sort=TRENDING}
+     * rank by likes, saves and comments, trending discounting older videos.
+     * Country codes missing from 'countries' are rejected, and so are page
+     * sizes outside 1 to {@code videos.search.maximum-page-size} and pages
+     * starting past the largest int.
+     * <p>
+     * With {@code facets=true} the page comes wrapped in a {@link VideoPage}
+     * along with the number of matching videos and their most common tags,
+     * counted while the page is searched. Counts that cannot be had in time
+     * are given as inexact, see {@link VideoFacetService}.
+     * <p>
+     * Identical searches arriving while one of them runs wait for its page
+     * rather than running again.
+     * <p>
+     * Responses carry an ETag and, once the second of the last catalogue change
+     * is over, a Last-Modified date. Valid conditional requests that still
+     * match are answered with 304 before any query runs. Popular and trending pages
+     * only carry Cache-Control.
+     */
     @GetMapping("/api/videos")
-    public List<Video> getMethodName(
+    public ResponseEntity<?> getMethodName(
             @RequestParam String countryCode,
             @RequestParam String keyword,
             @RequestParam List<String> tags,
-            @RequestParam Integer pageNumber,
-            @RequestParam Integer pageSize) {
-
-        Integer[] tagIds = new Integer[tags.size()];
-        for (int i = 0; i < tags.size(); ++i) {
-            List<Tag> dbTags = tagRepository.findByWord(tags.get(i));
-            if (dbTags.size() > 0) {
-                tagIds[i] = (int) dbTags.get(0).getId();
+            @RequestParam(defaultValue = "1") Integer pageNumber,
+            @RequestParam Integer pageSize,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "ANY") TagMatch tagMatch,
+            @RequestParam(defaultValue = "RECENT") VideoSort sort,
+            @RequestParam(defaultValue = "false") boolean facets,
+            HttpServletRequest request) {
+
+        requireKnownCountry(countryCode);
+        if (cursor != null && sort != VideoSort.RECENT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "cursor requires sort=RECENT");
+        }
+        if (pageSize < 1 || pageSize > searchMaximumPageSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "pageSize must be between 1 and " + searchMaximumPageSize);
+        }
+        if (pageNumber <= 0 || cursor != null) {
+            pageNumber = 1;
+        }
+        int skip;
+        try {
+            skip = Math.multiplyExact(pageSize, pageNumber - 1);
+        } catch (ArithmeticException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "pageNumber too large", e);
+        }
+
+        VideoCursor after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                after = VideoCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid cursor", e);
             }
         }
 
-        if (pageNumber <= 0) {
-            pageNumber = 1;
+        // likes, saves and comments reorder popular and trending pages without
+        // changing the catalogue, so those are not validated against it
+        boolean byEngagement = sort == VideoSort.POPULAR || sort == VideoSort.TRENDING;
+        HttpHeaders validators = validators(byEngagement ? null : catalogueWatermark.changedAt());
+        if (!byEngagement
+                && new ServletWebRequest(request).checkNotModified(validators.getETag(), validators.getLastModified())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(validators).build();
+        }
+
+        int filters = VideoSearchMetrics.filters(countryCode, keyword, !tags.isEmpty());
+        Integer[] tagIds = metrics.timer(Stage.TAGS, filters).record(() -> tagDictionary.resolve(tags));
+        if (cannotMatch(tags, tagIds, tagMatch)) {
+            metrics.recordRows(filters, 0);
+            List<VideoCard> none = new ArrayList<>();
+            return ResponseEntity.ok().headers(validators)
+                    .body(facets ? new VideoPage(none, new VideoFacets(0, true, List.of(), true)) : none);
+        }
+
+        VideoSearch search = VideoSearch.of(countryCode, keyword, Arrays.asList(tagIds)).matching(tagMatch)
+                .sortedBy(sort).page(pageSize, skip);
+        if (after != null) {
+            search = search.after(after.createdAt(), after.id());
+        }
+        CompletableFuture<VideoFacets> counting = null;
+        if (facets) {
+            counting = videoFacetService.start(search, metrics.timer(Stage.FACETS, filters));
         }
+        List<VideoCard> videos = videoSearchCoalescer.search(search);
+        metrics.recordRows(filters, videos.size());
 
-        List<Video> videos = videoRepository.findVideosByCondition(countryCode, keyword, tagIds, pageSize,
-                pageSize * (pageNumber - 1));
-        for (var video : videos) {
-            List<Profile> profiles = profileRepository.findByAccountId(video.getAccountId());
-            profiles.sort(new Comparator<Profile>() {
-                @Override
-                public int compare(Profile o1, Profile o2) {
-                    return o2.getUpdatedAt().compareTo(o1.getUpdatedAt());
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().headers(validators);
+        if (cursor != null && !videos.isEmpty() && videos.size() == pageSize) {
+            response.header(NEXT_CURSOR_HEADER, VideoCursor.after(videos.get(videos.size() - 1)).encode());
+        }
+        if (counting == null) {
+            return response.body(videos);
+        }
+        return response.body(new VideoPage(videos, videoFacetService.await(counting, search, videos.size())));
+    }
+
+    /**
+     * Fetches up to {@code videos.batch.maximum-ids} videos by id, in the
+     * order given, along with their author profiles and tag words. Ids of
+     * videos that do not exist are listed as missing. Validated like searches.
+     */
+    @GetMapping("/api/videos/batch")
+    public ResponseEntity<VideoBatch> batch(@RequestParam List<Long> ids, HttpServletRequest request) {
+        if (ids.size() > batchMaximumIds) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "at most " + batchMaximumIds + " ids");
+        }
+        HttpHeaders validators = validators(catalogueWatermark.changedAt());
+        if (new ServletWebRequest(request).checkNotModified(validators.getETag(), validators.getLastModified())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(validators).build();
+        }
+        return ResponseEntity.ok().headers(validators).body(videoSearchService.findByIds(ids));
+    }
+
+    /**
+     * Up to {@code limit} listed videos sharing tags with the given one, the
+     * most similar first, in the country unless {@code countryCode} is empty.
+     * Rare tags in common count for more than common ones. Unknown and
+     * unlisted videos are answered with 404. Validated like searches.
+     */
+    @GetMapping("/api/videos/{videoId}/similar")
+    public ResponseEntity<List<VideoCard>> similar(
+            @PathVariable long videoId,
+            @RequestParam(defaultValue = "") String countryCode,
+            @RequestParam(defaultValue = "20") int limit,
+            HttpServletRequest request) {
+        requireKnownCountry(countryCode);
+        if (limit < 1 || limit > similarMaximumLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + similarMaximumLimit);
+        }
+        HttpHeaders validators = validators(catalogueWatermark.changedAt());
+        if (new ServletWebRequest(request).checkNotModified(validators.getETag(), validators.getLastModified())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(validators).build();
+        }
+        List<VideoCard> videos = videoSearchService.findSimilar(videoId, countryCode, limit);
+        if (videos == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "no such video");
+        }
+        return ResponseEntity.ok().headers(validators).body(videos);
+    }
+
+    /**
+     * Streams every video matching the filters of {@code /api/videos} as
+     * newline-delimited JSON, one video per line, newest first. Memory use does
+     * not grow with the number of videos exported.
+     */
+    @GetMapping(value = "/api/videos/export", produces = NDJSON)
+    public void export(
+            @RequestParam(defaultValue = "") String countryCode,
+            @RequestParam(defaultValue = "") String keyword,
+            @RequestParam(defaultValue = "") List<String> tags,
+            @RequestParam(defaultValue = "ANY") TagMatch tagMatch,
+            HttpServletResponse response) throws IOException {
+
+        requireKnownCountry(countryCode);
+        response.setContentType(NDJSON);
+        Integer[] tagIds = tagDictionary.resolve(tags);
+        if (cannotMatch(tags, tagIds, tagMatch)) {
+            return;
+        }
+
+        ObjectWriter writer = objectMapper.writerFor(VideoCard.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withAttribute(VideoCardJsonModule.BYPASS, true);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(null);
+            videoSearchService.export(VideoSearch.of(countryCode, keyword, Arrays.asList(tagIds)).matching(tagMatch),
+                    exportFetchSize, chunk -> {
+                        for (VideoCard video : chunk) {
+                            writer.writeValue(generator, video);
+                            generator.writeRaw('\n');
+                        }
+                        // hand each chunk to the client before the next one is fetched
+                        generator.flush();
+                    });
+        }
+    }
+
+    /**
+     * Inserts videos in bulk along with their tag words, creating missing
+     * tags, and returns the ids of the new videos in the order given. Videos
+     * are committed in chunks, so a failure leaves the chunks before it in
+     * place; the request is checked whole before the first chunk, down to
+     * the accounts existing. Tag words are stripped, as searches look them up
+     * verbatim, and blank ones are rejected.
+     * <p>
+     * Writes for any account, so it is not part of the public API: it takes
+     * {@code Authorization: Bearer} with the {@code videos.ingest.token}, and
+     * is not found at all while no token is configured.
+     */
+    @PostMapping("/api/videos/bulk")
+    public List<Long> ingest(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestBody List<NewVideo> videos) {
+        if (ingestToken.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        if (authorization == null || !MessageDigest.isEqual(authorization.getBytes(StandardCharsets.UTF_8),
+                ("Bearer " + ingestToken).getBytes(StandardCharsets.UTF_8))) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "bulk ingest needs the ingest token");
+        }
+        List<NewVideo> checked = new ArrayList<>(videos.size());
+        for (NewVideo video : videos) {
+            if (video.accountId() == null || video.name() == null || video.type() == null || video.size() == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "every video needs an account id, a name, type and size");
+            }
+            if (video.countryCode() != null) {
+                requireKnownCountry(video.countryCode());
+            }
+            List<String> words = new ArrayList<>(video.tags().size());
+            for (String word : video.tags()) {
+                if (word == null || word.isBlank()) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "blank tag word");
                 }
-            });
-            if (profiles.size() > 0) {
-                video.setProfile(profiles.get(0));
+                words.add(word.strip());
             }
+            checked.add(video.withTags(words));
+        }
+        try {
+            return videoIngestService.ingest(checked);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * ETag, Last-Modified and Cache-Control of search responses given the time
+     * of the last catalogue change, or only Cache-Control without one.
+     */
+    private HttpHeaders validators(Instant changedAt) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl(CacheControl.maxAge(httpCacheMaxAge).cachePublic());
+        if (changedAt == null) {
+            return headers;
+        }
+        headers.setETag("W/\"" + Long.toHexString(ChronoUnit.MICROS.between(Instant.EPOCH, changedAt)) + "\"");
+        // Last-Modified only has second precision: until the second of the last
+        // change is over, another change within it would go unnoticed
+        if (!changedAt.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1).isAfter(Instant.now())) {
+            headers.setLastModified(changedAt.toEpochMilli());
+        }
+        return headers;
+    }
+
+    /**
+     * Rejects country codes missing from the {@link CountryRegistry}, before
+     * they reach a query or a cache key. Empty means any country.
+     */
+    private void requireKnownCountry(String countryCode) {
+        if (!countryCode.isEmpty() && !countryRegistry.contains(countryCode)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "unknown country code");
         }
-        return videos;
+    }
+
+    /**
+     * Whether requested tags that do not exist rule out every video.
+     */
+    private static boolean cannotMatch(List<String> tags, Integer[] tagIds, TagMatch tagMatch) {
+        return !tags.isEmpty() && (tagIds.length == 0
+                || tagMatch == TagMatch.ALL && tagIds.length < new HashSet<>(tags).size());
     }
 }
@@ -0,0 +1,45 @@
+package com.kefang.backend.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+
+import com.kefang.backend.db.repository.VideoCard;
+
+/**
+ * Position of a video in the {@code created_at desc, id desc} search order,
+ * handed to clients as an opaque token for keyset pagination.
+ */
+public record VideoCursor(Instant createdAt, long id) {
+
+    public static VideoCursor after(VideoCard video) {
+        // cards are read as java.sql.Timestamp, which keeps the microseconds
+        // that postgres stores; a plain Date would lose them
+        Instant createdAt = video.createdAt() instanceof Timestamp timestamp ? timestamp.toInstant()
+                : video.createdAt().toInstant();
+        return new VideoCursor(createdAt, video.id());
+    }
+
+    public String encode() {
+        long micros = ChronoUnit.MICROS.between(Instant.EPOCH, createdAt);
+        String plain = micros + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not produced by
+     *                                  {@link #encode()}
+     */
+    public static VideoCursor decode(String token) {
+        String plain = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+        int separator = plain.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("malformed cursor");
+        }
+        long micros = Long.parseLong(plain.substring(0, separator));
+        long id = Long.parseLong(plain.substring(separator + 1));
+        return new VideoCursor(Instant.EPOCH.plus(micros, ChronoUnit.MICROS), id);
+    }
+}
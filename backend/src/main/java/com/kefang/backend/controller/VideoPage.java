@@ -0,0 +1,12 @@
+package com.kefang.backend.controller;
+
+import java.util.List;
+
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.service.VideoFacets;
+
+/**
+ * A page of search results together with facets of the whole search.
+ */
+public record VideoPage(List<VideoCard> videos, VideoFacets facets) {
+}
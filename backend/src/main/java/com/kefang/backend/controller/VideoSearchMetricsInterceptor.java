@@ -0,0 +1,73 @@
+package com.kefang.backend.controller;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import com.kefang.backend.db.StatementCounter;
+import com.kefang.backend.service.VideoSearchMetrics;
+import com.kefang.backend.service.VideoSearchMetrics.Stage;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Records the parts of a /api/videos request that happen outside
+ * {@link VideoController}: the database round trips of the whole request, and
+ * the JSON serialization that starts once the controller has returned.
+ */
+@ControllerAdvice(assignableTypes = VideoController.class)
+public class VideoSearchMetricsInterceptor implements HandlerInterceptor, ResponseBodyAdvice<Object> {
+
+    private static final String STATEMENTS_BEFORE = VideoSearchMetricsInterceptor.class.getName() + ".statements";
+
+    private static final String SERIALIZE_START = VideoSearchMetricsInterceptor.class.getName() + ".serialize";
+
+    @Autowired
+    private VideoSearchMetrics metrics;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(STATEMENTS_BEFORE, StatementCounter.current());
+        return true;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+            Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+            ServerHttpResponse response) {
+        if (request instanceof ServletServerHttpRequest servletRequest) {
+            servletRequest.getServletRequest().setAttribute(SERIALIZE_START, System.nanoTime());
+        }
+        return body;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        String tags = request.getParameter("tags");
+        int filters = VideoSearchMetrics.filters(request.getParameter("countryCode"), request.getParameter("keyword"),
+                tags != null && !tags.isEmpty());
+        if (request.getAttribute(SERIALIZE_START) instanceof Long start) {
+            metrics.timer(Stage.SERIALIZE, filters).record(System.nanoTime() - start,
+                    TimeUnit.NANOSECONDS);
+        }
+        if (request.getAttribute(STATEMENTS_BEFORE) instanceof Long before) {
+            metrics.recordRoundTrips(filters, StatementCounter.current() - before);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.kefang.backend.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private SearchLimitInterceptor searchLimitInterceptor;
+
+    @Autowired
+    private VideoSearchMetricsInterceptor videoSearchMetricsInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // refused searches are neither run nor metered
+        registry.addInterceptor(searchLimitInterceptor).addPathPatterns("/api/videos");
+        registry.addInterceptor(videoSearchMetricsInterceptor).addPathPatterns("/api/videos");
+    }
+}
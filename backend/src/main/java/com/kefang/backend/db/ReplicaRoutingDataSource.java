@@ -0,0 +1,139 @@
+package com.kefang.backend.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hands out replica connections to read-only transactions and primary
+ * connections to everything else.
+ * <p>
+ * The route is taken when the connection is requested, so it has to be
+ * wrapped in a LazyConnectionDataSourceProxy: the read-only flag of a
+ * transaction is only set after the transaction manager asked for its
+ * connection.
+ * <p>
+ * The replica is bypassed while its replay lags more than the maximum behind
+ * the primary, or while it cannot be reached or is not streaming from the
+ * primary, as found by {@link #checkLag()}. A streaming standby that has
+ * replayed everything it received counts as not lagging, however long ago the
+ * last transaction was; a server that is not a standby at all never lags.
+ * <p>
+ * It is also bypassed for the maximum lag after each {@link #holdReads()}, so
+ * that reads prompted by a change announced from the primary, such as cache
+ * refills, do not find the replica from before the change.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    /**
+     * Null for a standby whose WAL receiver is not streaming, which has
+     * nothing left to replay only because it receives nothing. The status is
+     * hidden from roles without pg_read_all_stats, for which a running
+     * receiver has to do.
+     */
+    private static final String LAG_QUERY = """
+            select case when not pg_is_in_recovery() then 0
+            when not exists (select 1 from pg_stat_wal_receiver where status = 'streaming' or status is null) then null
+            when pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() then 0
+            else extract(epoch from now() - pg_last_xact_replay_timestamp()) end
+            """;
+
+    public enum Target {
+        PRIMARY,
+        REPLICA
+    }
+
+    private final DataSource replica;
+
+    private final Duration maximumLag;
+
+    private volatile double lagSeconds = Double.NaN;
+
+    private volatile boolean replicaUsable;
+
+    /** System.nanoTime() until which reads are held on the primary */
+    private volatile long heldUntilNanos = System.nanoTime();
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, Duration maximumLag) {
+        this.replica = replica;
+        this.maximumLag = maximumLag;
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return currentTarget();
+    }
+
+    public Target currentTarget() {
+        return replicaUsable && TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && System.nanoTime() - heldUntilNanos >= 0 ? Target.REPLICA : Target.PRIMARY;
+    }
+
+    /**
+     * Sends read-only transactions to the primary for the maximum lag from
+     * now, by when the replica has replayed what the primary committed so far
+     * or is bypassed for lagging.
+     */
+    public void holdReads() {
+        heldUntilNanos = System.nanoTime() + maximumLag.toNanos();
+    }
+
+    /**
+     * Replay lag of the replica when last checked, NaN when it could not be
+     * reached.
+     */
+    public double lagSeconds() {
+        return lagSeconds;
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    @Scheduled(fixedDelayString = "${datasource.replica.lag-check-interval:PT1S}")
+    public void checkLag() {
+        double lag;
+        boolean reached = false;
+        try (Connection connection = replica.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery(LAG_QUERY)) {
+            result.next();
+            reached = true;
+            lag = result.getDouble(1);
+            if (result.wasNull()) {
+                // not streaming, or not replayed any transaction yet
+                lag = Double.NaN;
+            }
+        } catch (SQLException e) {
+            if (replicaUsable) {
+                logger.warn("replica unreachable, reading from the primary", e);
+            }
+            lag = Double.NaN;
+        }
+        boolean usable = lag <= maximumLag.toMillis() / 1000.0;
+        if (replicaUsable && !usable && !Double.isNaN(lag)) {
+            logger.warn("replica lags {} s behind, reading from the primary", lag);
+        } else if (replicaUsable && !usable && reached) {
+            logger.warn("replica not streaming from the primary, reading from the primary");
+        } else if (!replicaUsable && usable) {
+            logger.info("replica within {} s of the primary, reading from it", lag);
+        }
+        lagSeconds = lag;
+        replicaUsable = usable;
+    }
+}
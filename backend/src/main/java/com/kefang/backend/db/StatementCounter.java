@@ -0,0 +1,34 @@
+package com.kefang.backend.db;
+
+import java.util.Map;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the SQL statements Hibernate sends from each thread, so that the
+ * database round trips of a request can be measured as the difference of
+ * {@link #current()} before and after it.
+ */
+@Component
+public class StatementCounter implements StatementInspector, HibernatePropertiesCustomizer {
+
+    private static final ThreadLocal<long[]> count = ThreadLocal.withInitial(() -> new long[1]);
+
+    public static long current() {
+        return count.get()[0];
+    }
+
+    @Override
+    public String inspect(String sql) {
+        ++count.get()[0];
+        return sql;
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+}
@@ -1,21 +1,40 @@
 package com.kefang.backend.db.entity;
 
+import java.sql.Timestamp;
 import java.util.Date;
 
+import com.kefang.backend.db.repository.ProfileCard;
+
+import jakarta.persistence.ColumnResult;
+import jakarta.persistence.ConstructorResult;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.SqlResultSetMapping;
 import jakarta.persistence.Table;
 
 @Entity
 @Table(name = "profile")
+@SqlResultSetMapping(name = ProfileCard.MAPPING, classes = @ConstructorResult(targetClass = ProfileCard.class, columns = {
+        @ColumnResult(name = "id", type = Long.class),
+        @ColumnResult(name = "account_id", type = Long.class),
+        @ColumnResult(name = "country_code", type = String.class),
+        @ColumnResult(name = "region", type = String.class),
+        @ColumnResult(name = "city", type = String.class),
+        @ColumnResult(name = "postcode", type = String.class),
+        @ColumnResult(name = "street_address", type = String.class),
+        @ColumnResult(name = "extended_address", type = String.class),
+        @ColumnResult(name = "username", type = String.class),
+        @ColumnResult(name = "photo", type = String.class),
+        @ColumnResult(name = "updated_at", type = Timestamp.class),
+        @ColumnResult(name = "created_at", type = Timestamp.class) }))
 public class Profile {
 
     @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "profile_id_seq")
     @SequenceGenerator(name = "profile_id_seq", sequenceName = "profile_id_seq", allocationSize = 1)
-    @GeneratedValue(strategy = GenerationType.AUTO)
     private long id;
     private long accountId;
     private String countryCode;
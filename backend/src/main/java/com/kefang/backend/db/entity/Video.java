@@ -1,17 +1,36 @@
 package com.kefang.backend.db.entity;
 
+import java.sql.Timestamp;
 import java.util.Date;
 
+import com.kefang.backend.db.repository.VideoCard;
+
+import jakarta.persistence.ColumnResult;
+import jakarta.persistence.ConstructorResult;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.SqlResultSetMapping;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 
 @Entity
 @Table(name = "video")
+@SqlResultSetMapping(name = VideoCard.MAPPING, classes = @ConstructorResult(targetClass = VideoCard.class, columns = {
+        @ColumnResult(name = "id", type = Long.class),
+        @ColumnResult(name = "account_id", type = Long.class),
+        @ColumnResult(name = "country_code", type = String.class),
+        @ColumnResult(name = "title", type = String.class),
+        @ColumnResult(name = "description", type = String.class),
+        @ColumnResult(name = "name", type = String.class),
+        @ColumnResult(name = "type", type = String.class),
+        @ColumnResult(name = "size", type = Integer.class),
+        @ColumnResult(name = "upload_url", type = String.class),
+        @ColumnResult(name = "thumbnail_url", type = String.class),
+        @ColumnResult(name = "updated_at", type = Timestamp.class),
+        @ColumnResult(name = "created_at", type = Timestamp.class) }))
 public class Video {
 
     @Id
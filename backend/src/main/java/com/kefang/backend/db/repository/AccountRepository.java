@@ -1,5 +1,7 @@
 package com.kefang.backend.db.repository;
 
+import java.util.Collection;
+
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
@@ -8,4 +10,5 @@ import com.kefang.backend.db.entity.Account;
 @Repository
 public interface AccountRepository extends CrudRepository<Account, Long> {
 
+    long countByIdIn(Collection<Long> ids);
 }
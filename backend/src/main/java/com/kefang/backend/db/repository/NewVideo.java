@@ -0,0 +1,29 @@
+package com.kefang.backend.db.repository;
+
+import java.util.List;
+
+/**
+ * A video to be inserted along with the words of its tags, which are created
+ * when missing.
+ */
+public record NewVideo(
+        Long accountId,
+        String countryCode,
+        String title,
+        String description,
+        String name,
+        String type,
+        Integer size,
+        String uploadUrl,
+        String thumbnailUrl,
+        List<String> tags) {
+
+    public List<String> tags() {
+        return tags == null ? List.of() : tags;
+    }
+
+    public NewVideo withTags(List<String> tags) {
+        return new NewVideo(accountId, countryCode, title, description, name, type, size, uploadUrl, thumbnailUrl,
+                tags);
+    }
+}
@@ -0,0 +1,21 @@
+package com.kefang.backend.db.repository;
+
+import java.util.Date;
+
+/**
+ * Read-only view of a profile, serialized like a
+ * {@link com.kefang.backend.db.entity.Profile} entity.
+ */
+public record ProfileCard(long id, long accountId, String countryCode, String region, String city, String postcode,
+        String streetAddress, String extendedAddress, String username, String photo, Date updatedAt,
+        Date createdAt) {
+
+    /**
+     * Name of the result set mapping that builds cards from the
+     * {@link #COLUMNS} of table 'profile' aliased as {@code p}.
+     */
+    public static final String MAPPING = "ProfileCard";
+
+    public static final String COLUMNS = "p.id, p.account_id, p.country_code, p.region, p.city, p.postcode,"
+            + " p.street_address, p.extended_address, p.username, p.photo, p.updated_at, p.created_at";
+}
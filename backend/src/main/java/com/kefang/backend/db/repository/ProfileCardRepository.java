@@ -0,0 +1,13 @@
+package com.kefang.backend.db.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ProfileCardRepository {
+
+    /**
+     * Returns the most recently updated profile of every given account, one row
+     * per account, in a single round trip.
+     */
+    List<ProfileCard> findNewestCardsByAccountIdIn(Collection<Long> accountIds);
+}
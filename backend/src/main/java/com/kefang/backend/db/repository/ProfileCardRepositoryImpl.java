@@ -0,0 +1,26 @@
+package com.kefang.backend.db.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+public class ProfileCardRepositoryImpl implements ProfileCardRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ProfileCard> findNewestCardsByAccountIdIn(Collection<Long> accountIds) {
+        if (accountIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return entityManager.createNativeQuery("select distinct on (p.account_id) " + ProfileCard.COLUMNS
+                + " from profile p where p.account_id in (:accountIds)"
+                + " order by p.account_id, p.updated_at desc nulls last, p.created_at desc, p.id desc",
+                ProfileCard.MAPPING).setParameter("accountIds", accountIds).getResultList();
+    }
+}
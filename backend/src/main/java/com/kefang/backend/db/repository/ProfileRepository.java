@@ -4,10 +4,11 @@ import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
 import com.kefang.backend.db.entity.Profile;
+
 import java.util.List;
 
 @Repository
-public interface ProfileRepository extends CrudRepository<Profile, Long> {
+public interface ProfileRepository extends CrudRepository<Profile, Long>, ProfileCardRepository {
 
     List<Profile> findByAccountId(long accountId);
 
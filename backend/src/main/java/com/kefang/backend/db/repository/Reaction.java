@@ -0,0 +1,7 @@
+package com.kefang.backend.db.repository;
+
+/**
+ * A like or save of a video by an account.
+ */
+public record Reaction(ReactionType type, long accountId, long videoId) {
+}
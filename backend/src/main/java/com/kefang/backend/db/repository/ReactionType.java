@@ -0,0 +1,32 @@
+package com.kefang.backend.db.repository;
+
+/**
+ * Kinds of reaction an account can leave on a video, at most one of each.
+ */
+public enum ReactionType {
+    LIKE("likes"),
+    SAVE("saves");
+
+    private final String table;
+
+    ReactionType(String table) {
+        this.table = table;
+    }
+
+    /**
+     * Table holding one row per reaction of this type, which also names the
+     * type in URLs.
+     */
+    public String table() {
+        return table;
+    }
+
+    public static ReactionType ofTable(String table) {
+        for (ReactionType type : values()) {
+            if (type.table.equals(table)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("no reaction kept in " + table);
+    }
+}
@@ -0,0 +1,7 @@
+package com.kefang.backend.db.repository;
+
+/**
+ * Number of videos carrying a tag.
+ */
+public record TagCount(String tag, long videos) {
+}
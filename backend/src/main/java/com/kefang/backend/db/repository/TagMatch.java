@@ -0,0 +1,11 @@
+package com.kefang.backend.db.repository;
+
+/**
+ * How the tags of a video search are combined.
+ */
+public enum TagMatch {
+    /** the video carries at least one of the tags */
+    ANY,
+    /** the video carries every one of the tags */
+    ALL
+}
@@ -3,9 +3,15 @@ package com.kefang.backend.db.repository;
 import org.springframework.data.repository.CrudRepository;
 
 import com.kefang.backend.db.entity.Tag;
+
+import java.util.Collection;
 import java.util.List;
 
 public interface TagRepository extends CrudRepository<Tag, Long> {
 
     List<Tag> findByWord(String word);
-}
\ No newline at end of file
+
+    List<Tag> findByWordIn(Collection<String> words);
+
+    List<Tag> findByIdGreaterThan(long id);
+}
@@ -0,0 +1,32 @@
+package com.kefang.backend.db.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface VideoBulkRepository {
+
+    /**
+     * Inserts the videos and their tags, creating missing tags, with a fixed
+     * number of round trips however many videos are given. Must be called in
+     * a transaction.
+     *
+     * @return ids of the inserted videos, in the order given
+     */
+    List<Long> insertAll(List<NewVideo> videos);
+
+    /**
+     * Inserts the reactions that do not exist yet, with one statement per
+     * reaction type. Reactions of accounts or videos that no longer exist are
+     * skipped.
+     *
+     * @return number of reactions inserted
+     */
+    int insertReactions(Collection<Reaction> reactions);
+
+    /**
+     * Deletes the reactions, with one statement per reaction type.
+     *
+     * @return number of reactions deleted
+     */
+    int deleteReactions(Collection<Reaction> reactions);
+}
@@ -0,0 +1,127 @@
+package com.kefang.backend.db.repository;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlParameterValue;
+
+/**
+ * Writes through JDBC batches instead of persisting entities one by one.
+ * <p>
+ * Video ids are drawn from video_id_seq in one block per call, with a single
+ * nextval query, rather than one sequence round trip per row. The sequence
+ * keeps its increment of 1, so the column default and the entity mapping go on
+ * working unchanged.
+ * <p>
+ * Reactions are passed as parallel id arrays and unnested, so that a whole
+ * batch of them is one statement whichever its size. The arrays are bigint,
+ * so that an id out of the range of the integer columns is dropped like any
+ * unknown id rather than failing the batch.
+ */
+public class VideoBulkRepositoryImpl implements VideoBulkRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public List<Long> insertAll(List<NewVideo> videos) {
+        if (videos.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> ids = jdbcTemplate.queryForList("select nextval('video_id_seq') from generate_series(1, ?)",
+                Long.class, videos.size());
+        Map<String, Integer> tagIds = createTags(videos);
+
+        List<Object[]> videoRows = new ArrayList<>(videos.size());
+        List<Object[]> tagRows = new ArrayList<>();
+        for (int i = 0; i < videos.size(); ++i) {
+            NewVideo video = videos.get(i);
+            videoRows.add(new Object[] { ids.get(i), video.accountId(), video.countryCode(), video.title(),
+                    video.description(), video.name(), video.type(), video.size(), video.uploadUrl(),
+                    video.thumbnailUrl() });
+            for (String word : new LinkedHashSet<>(video.tags())) {
+                tagRows.add(new Object[] { ids.get(i), tagIds.get(word) });
+            }
+        }
+        jdbcTemplate.batchUpdate("insert into video (id, account_id, country_code, title, description, name, type,"
+                + " size, upload_url, thumbnail_url) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", videoRows);
+        jdbcTemplate.batchUpdate("insert into video_tag (video_id, tag_id) values (?, ?)", tagRows);
+        return ids;
+    }
+
+    /**
+     * Creates the tags of the videos that do not exist yet and returns the ids
+     * of all of them, in two queries.
+     */
+    private Map<String, Integer> createTags(List<NewVideo> videos) {
+        Set<String> words = new LinkedHashSet<>();
+        for (NewVideo video : videos) {
+            words.addAll(video.tags());
+        }
+        Map<String, Integer> tagIds = new HashMap<>();
+        if (words.isEmpty()) {
+            return tagIds;
+        }
+        SqlParameterValue array = new SqlParameterValue(Types.ARRAY, words.toArray(new String[0]));
+        jdbcTemplate.update("insert into tag (word) select unnest(cast(? as text[])) on conflict (word) do nothing",
+                array);
+        jdbcTemplate.query("select id, word from tag where word = any(cast(? as text[]))",
+                rs -> {
+                    tagIds.put(rs.getString("word"), rs.getInt("id"));
+                }, array);
+        return tagIds;
+    }
+
+    @Override
+    public int insertReactions(Collection<Reaction> reactions) {
+        int inserted = 0;
+        for (Map.Entry<ReactionType, List<Reaction>> byType : byType(reactions).entrySet()) {
+            inserted += jdbcTemplate.update("insert into " + byType.getKey().table() + " (account_id, video_id)"
+                    + " select r.account_id, r.video_id"
+                    + " from unnest(cast(? as bigint[]), cast(? as bigint[])) r(account_id, video_id)"
+                    + " where exists (select 1 from account a where a.id = r.account_id)"
+                    + " and exists (select 1 from video v where v.id = r.video_id)"
+                    + " on conflict do nothing", idArrays(byType.getValue()));
+        }
+        return inserted;
+    }
+
+    @Override
+    public int deleteReactions(Collection<Reaction> reactions) {
+        int deleted = 0;
+        for (Map.Entry<ReactionType, List<Reaction>> byType : byType(reactions).entrySet()) {
+            deleted += jdbcTemplate.update("delete from " + byType.getKey().table() + " t"
+                    + " using unnest(cast(? as bigint[]), cast(? as bigint[])) r(account_id, video_id)"
+                    + " where t.account_id = r.account_id and t.video_id = r.video_id", idArrays(byType.getValue()));
+        }
+        return deleted;
+    }
+
+    private static Map<ReactionType, List<Reaction>> byType(Collection<Reaction> reactions) {
+        Map<ReactionType, List<Reaction>> byType = new EnumMap<>(ReactionType.class);
+        for (Reaction reaction : reactions) {
+            byType.computeIfAbsent(reaction.type(), type -> new ArrayList<>()).add(reaction);
+        }
+        return byType;
+    }
+
+    private static Object[] idArrays(List<Reaction> reactions) {
+        Long[] accountIds = new Long[reactions.size()];
+        Long[] videoIds = new Long[reactions.size()];
+        for (int i = 0; i < reactions.size(); ++i) {
+            accountIds[i] = reactions.get(i).accountId();
+            videoIds[i] = reactions.get(i).videoId();
+        }
+        return new Object[] { new SqlParameterValue(Types.ARRAY, accountIds),
+                new SqlParameterValue(Types.ARRAY, videoIds) };
+    }
+}
@@ -0,0 +1,33 @@
+package com.kefang.backend.db.repository;
+
+import java.util.Date;
+
+/**
+ * Read-only view of a video as the search results show it, with the author's
+ * profile. Serializes to the same JSON as a {@link com.kefang.backend.db.entity.Video}
+ * entity with its profile set, without being tracked by a persistence context.
+ */
+public record VideoCard(long id, long accountId, String countryCode, String title, String description, String name,
+        String type, Integer size, String uploadUrl, String thumbnailUrl, Date updatedAt, Date createdAt,
+        ProfileCard profile) {
+
+    /**
+     * Name of the result set mapping that builds cards, without profiles, from
+     * the {@link #COLUMNS} of table 'video' aliased as {@code v}.
+     */
+    public static final String MAPPING = "VideoCard";
+
+    public static final String COLUMNS = "v.id, v.account_id, v.country_code, v.title, v.description, v.name, v.type,"
+            + " v.size, v.upload_url, v.thumbnail_url, v.updated_at, v.created_at";
+
+    public VideoCard(Long id, Long accountId, String countryCode, String title, String description, String name,
+            String type, Integer size, String uploadUrl, String thumbnailUrl, Date updatedAt, Date createdAt) {
+        this(id, accountId, countryCode, title, description, name, type, size, uploadUrl, thumbnailUrl, updatedAt,
+                createdAt, null);
+    }
+
+    public VideoCard withProfile(ProfileCard profile) {
+        return new VideoCard(id, accountId, countryCode, title, description, name, type, size, uploadUrl,
+                thumbnailUrl, updatedAt, createdAt, profile);
+    }
+}
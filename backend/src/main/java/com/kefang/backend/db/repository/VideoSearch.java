@@ -0,0 +1,88 @@
+package com.kefang.backend.db.repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Conditions and page of a video search. Empty country code, keyword and tag
+ * list mean no filtering on that attribute. When {@code afterCreatedAt} is set
+ * the page starts right after that (created_at, id) position and {@code skip}
+ * is ignored; cursors are only meaningful in {@link VideoSort#RECENT} order.
+ */
+public record VideoSearch(
+        String countryCode,
+        String keyword,
+        List<Integer> tagIds,
+        TagMatch tagMatch,
+        VideoSort sort,
+        Instant afterCreatedAt,
+        Long afterId,
+        int pageSize,
+        int skip) {
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    public static VideoSearch of(String countryCode, String keyword, List<Integer> tagIds) {
+        return new VideoSearch(countryCode, keyword, List.copyOf(tagIds), TagMatch.ANY, VideoSort.RECENT, null, null,
+                20, 0);
+    }
+
+    public VideoSearch matching(TagMatch tagMatch) {
+        return new VideoSearch(countryCode, keyword, tagIds, tagMatch, sort, afterCreatedAt, afterId, pageSize, skip);
+    }
+
+    public VideoSearch sortedBy(VideoSort sort) {
+        return new VideoSearch(countryCode, keyword, tagIds, tagMatch, sort, afterCreatedAt, afterId, pageSize, skip);
+    }
+
+    public VideoSearch page(int pageSize, int skip) {
+        return new VideoSearch(countryCode, keyword, tagIds, tagMatch, sort, afterCreatedAt, afterId, pageSize, skip);
+    }
+
+    public VideoSearch after(Instant createdAt, long id) {
+        return new VideoSearch(countryCode, keyword, tagIds, tagMatch, sort, createdAt, id, pageSize, 0);
+    }
+
+    public boolean hasCountryCode() {
+        return countryCode != null && !countryCode.isEmpty();
+    }
+
+    public boolean hasKeyword() {
+        return keyword != null && !keyword.isEmpty();
+    }
+
+    /**
+     * Lower-cased words of the keyword. Punctuation separates words and is
+     * dropped, so the terms never carry tsquery operators.
+     */
+    public List<String> keywordTerms() {
+        List<String> terms = new ArrayList<>();
+        if (hasKeyword()) {
+            for (String word : NON_WORD.split(keyword.toLowerCase(Locale.ROOT))) {
+                if (!word.isEmpty()) {
+                    terms.add(word);
+                }
+            }
+        }
+        return terms;
+    }
+
+    public boolean hasTags() {
+        return !tagIds.isEmpty();
+    }
+
+    public boolean byRelevance() {
+        return sort == VideoSort.RELEVANCE && hasKeyword();
+    }
+
+    public boolean byEngagement() {
+        return sort == VideoSort.POPULAR || sort == VideoSort.TRENDING;
+    }
+
+    public boolean hasCursor() {
+        return afterCreatedAt != null;
+    }
+}
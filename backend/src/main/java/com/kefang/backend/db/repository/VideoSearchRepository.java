@@ -0,0 +1,95 @@
+package com.kefang.backend.db.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import com.kefang.backend.db.entity.Video;
+
+public interface VideoSearchRepository {
+
+    /**
+     * Searches fully uploaded videos, newest first, matching any of the given
+     * tags.
+     */
+    List<Video> findVideosByCondition(String countryCode, String keyword, Integer[] tagIdList, Integer pageSize,
+            Integer skip);
+
+    List<VideoCard> search(VideoSearch search);
+
+    /**
+     * Loads the cards of the given videos, in no particular order and without
+     * profiles.
+     */
+    List<VideoCard> findCardsByIdIn(Collection<Long> ids);
+
+    /**
+     * Tag words of each of the given videos, in alphabetical order. Videos
+     * without tags are left out.
+     */
+    Map<Long, List<String>> findTagWordsByVideoIdIn(Collection<Long> ids);
+
+    /**
+     * Counts the videos the search matches, stopping at {@code limit}. Sort,
+     * page and cursor of the search are ignored.
+     */
+    long countMatches(VideoSearch search, int limit);
+
+    /**
+     * The {@code top} tags most common among the newest {@code scanLimit}
+     * videos the search matches, most common first. Sort, page and cursor of
+     * the search are ignored.
+     */
+    List<TagCount> countTagsOfMatches(VideoSearch search, int scanLimit, int top);
+
+    /**
+     * Number of listed videos in the country, or in every country when the
+     * country code is empty, carrying the tag if one is given. Read from the
+     * counts maintained in the 'video_count' table.
+     */
+    long countListed(String countryCode, Integer tagId);
+
+    /**
+     * The {@code top} most common tags of listed videos in the country, or in
+     * every country when the country code is empty, most common first. Read
+     * from the counts maintained in the 'video_count' table.
+     */
+    List<TagCount> countListedTags(String countryCode, int top);
+
+    /**
+     * Number of listed videos carrying each tag, in every country, keyed by
+     * tag id. Tags no listed video carries are left out. Read from the counts
+     * maintained in the 'video_count' table.
+     */
+    Map<Long, Long> countListedPerTag();
+
+    /**
+     * Same as {@link #countListedPerTag} for the given tags only.
+     */
+    Map<Long, Long> countListedByTagIdIn(Collection<Long> tagIds);
+
+    /**
+     * Ids of the tags of the given videos, each once.
+     */
+    List<Long> findTagIdsByVideoIdIn(Collection<Long> videoIds);
+
+    /**
+     * Streams the tags of every listed video, in ascending order of video id,
+     * through a forward-only cursor that fetches {@code fetchSize} rows at a
+     * time. Must be called in a transaction and the stream closed before it
+     * ends.
+     */
+    Stream<VideoTags> streamListedTags(int fetchSize);
+
+    /**
+     * Tags of the video, or null when it does not exist or is not listed.
+     */
+    VideoTags findListedTags(long videoId);
+
+    /**
+     * Tags of those of the given videos that exist and are listed, in no
+     * particular order.
+     */
+    List<VideoTags> findListedTagsByVideoIdIn(Collection<Long> videoIds);
+}
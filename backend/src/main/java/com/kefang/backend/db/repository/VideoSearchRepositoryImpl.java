@@ -0,0 +1,344 @@
+package com.kefang.backend.db.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.HibernateHints;
+
+import com.kefang.backend.db.entity.Video;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+/**
+ * Builds the video search query from only the conditions that are present, so
+ * that postgres plans each combination on its own: without filters it walks
+ * idx_video_created_at_id and stops after one page. Tags are tested with a
+ * semi-join per candidate video instead of aggregating the tags of every
+ * filtered video before the limit applies. Keywords are matched against the
+ * stored search_vector column through idx_video_search_vector.
+ * <p>
+ * Searches select only the card columns into {@link VideoCard} records, which
+ * the persistence context neither tracks nor snapshots.
+ * <p>
+ * Facet counts over arbitrary filters scan a bounded number of matches.
+ * Counts by country and single tag are read from 'video_count' instead, which
+ * triggers keep in step with the 'video' and 'video_tag' tables.
+ * <p>
+ * Popular and trending searches join 'video_engagement', whose scores are
+ * indexed so that the first pages are read off the index in order.
+ */
+public class VideoSearchRepositoryImpl implements VideoSearchRepository {
+
+    private static final String LISTED_TAGS = "select v.id, v.country_code,"
+            + " array_remove(array_agg(vt.tag_id order by vt.tag_id), null) from video v"
+            + " left join video_tag vt on vt.video_id = v.id"
+            + " where v.upload_url is not null and v.thumbnail_url is not null";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Video> findVideosByCondition(String countryCode, String keyword, Integer[] tagIdList,
+            Integer pageSize, Integer skip) {
+        List<Integer> tagIds = new ArrayList<>();
+        if (tagIdList != null) {
+            for (Integer tagId : tagIdList) {
+                if (tagId != null) {
+                    tagIds.add(tagId);
+                }
+            }
+        }
+        return find(VideoSearch.of(countryCode, keyword, tagIds).page(pageSize, skip), "v.*",
+                sql -> entityManager.createNativeQuery(sql, Video.class));
+    }
+
+    @Override
+    public List<VideoCard> search(VideoSearch search) {
+        return find(search, VideoCard.COLUMNS, sql -> entityManager.createNativeQuery(sql, VideoCard.MAPPING));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<VideoCard> findCardsByIdIn(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return entityManager.createNativeQuery("select " + VideoCard.COLUMNS + " from video v where v.id in (:ids)",
+                VideoCard.MAPPING).setParameter("ids", ids).getResultList();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Long, List<String>> findTagWordsByVideoIdIn(Collection<Long> ids) {
+        Map<Long, List<String>> words = new HashMap<>();
+        if (ids.isEmpty()) {
+            return words;
+        }
+        List<Object[]> rows = entityManager.createNativeQuery("select vt.video_id, t.word from video_tag vt"
+                + " join tag t on t.id = vt.tag_id where vt.video_id in (:ids) order by t.word")
+                .setParameter("ids", ids).getResultList();
+        for (Object[] row : rows) {
+            words.computeIfAbsent(((Number) row[0]).longValue(), id -> new ArrayList<>()).add((String) row[1]);
+        }
+        return words;
+    }
+
+    @Override
+    public long countMatches(VideoSearch search, int limit) {
+        Map<String, Object> params = new HashMap<>();
+        String where = where(search, params);
+        if (where == null) {
+            return 0;
+        }
+        params.put("limit", limit);
+        Query query = entityManager.createNativeQuery(
+                "select count(*) from (select 1 from video v where " + where + " limit :limit) m");
+        return ((Number) withParameters(query, params).getSingleResult()).longValue();
+    }
+
+    @Override
+    public List<TagCount> countTagsOfMatches(VideoSearch search, int scanLimit, int top) {
+        Map<String, Object> params = new HashMap<>();
+        String where = where(search, params);
+        if (where == null) {
+            return new ArrayList<>();
+        }
+        params.put("scanLimit", scanLimit);
+        params.put("top", top);
+        Query query = entityManager.createNativeQuery("select t.word, count(*) from (select v.id from video v where "
+                + where + " order by v.created_at desc, v.id desc limit :scanLimit) m"
+                + " join video_tag vt on vt.video_id = m.id join tag t on t.id = vt.tag_id"
+                + " group by t.word order by count(*) desc, t.word limit :top");
+        return tagCounts(withParameters(query, params));
+    }
+
+    @Override
+    public long countListed(String countryCode, Integer tagId) {
+        StringBuilder sql = new StringBuilder("select coalesce(sum(c.videos), 0) from video_count c")
+                .append(" where c.tag_id = :tagId");
+        if (countryCode != null && !countryCode.isEmpty()) {
+            sql.append(" and c.country_code = :countryCode");
+        }
+        Query query = entityManager.createNativeQuery(sql.toString()).setParameter("tagId",
+                tagId == null ? 0 : tagId);
+        if (countryCode != null && !countryCode.isEmpty()) {
+            query.setParameter("countryCode", countryCode);
+        }
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    @Override
+    public List<TagCount> countListedTags(String countryCode, int top) {
+        StringBuilder sql = new StringBuilder("select t.word, sum(c.videos) from video_count c")
+                .append(" join tag t on t.id = c.tag_id where c.videos > 0");
+        if (countryCode != null && !countryCode.isEmpty()) {
+            sql.append(" and c.country_code = :countryCode");
+        }
+        sql.append(" group by t.word order by sum(c.videos) desc, t.word limit :top");
+        Query query = entityManager.createNativeQuery(sql.toString()).setParameter("top", top);
+        if (countryCode != null && !countryCode.isEmpty()) {
+            query.setParameter("countryCode", countryCode);
+        }
+        return tagCounts(query);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Long, Long> countListedPerTag() {
+        Map<Long, Long> counts = new HashMap<>();
+        List<Object[]> rows = entityManager.createNativeQuery("select c.tag_id, sum(c.videos) from video_count c"
+                + " where c.tag_id <> 0 group by c.tag_id having sum(c.videos) > 0").getResultList();
+        for (Object[] row : rows) {
+            counts.put(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Long, Long> countListedByTagIdIn(Collection<Long> tagIds) {
+        Map<Long, Long> counts = new HashMap<>();
+        if (tagIds.isEmpty()) {
+            return counts;
+        }
+        List<Object[]> rows = entityManager.createNativeQuery("select c.tag_id, sum(c.videos) from video_count c"
+                + " where c.tag_id in (:tagIds) group by c.tag_id having sum(c.videos) > 0")
+                .setParameter("tagIds", tagIds).getResultList();
+        for (Object[] row : rows) {
+            counts.put(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Long> findTagIdsByVideoIdIn(Collection<Long> videoIds) {
+        if (videoIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Number> rows = entityManager.createNativeQuery(
+                "select distinct vt.tag_id from video_tag vt where vt.video_id in (:videoIds)")
+                .setParameter("videoIds", videoIds).getResultList();
+        List<Long> tagIds = new ArrayList<>(rows.size());
+        for (Number row : rows) {
+            tagIds.add(row.longValue());
+        }
+        return tagIds;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Stream<VideoTags> streamListedTags(int fetchSize) {
+        Stream<Object[]> rows = entityManager.createNativeQuery(LISTED_TAGS + " group by v.id order by v.id")
+                .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+        return rows.map(VideoSearchRepositoryImpl::videoTags);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public VideoTags findListedTags(long videoId) {
+        List<Object[]> rows = entityManager.createNativeQuery(LISTED_TAGS + " and v.id = :videoId group by v.id")
+                .setParameter("videoId", videoId).getResultList();
+        return rows.isEmpty() ? null : videoTags(rows.get(0));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<VideoTags> findListedTagsByVideoIdIn(Collection<Long> videoIds) {
+        List<VideoTags> videos = new ArrayList<>();
+        if (videoIds.isEmpty()) {
+            return videos;
+        }
+        List<Object[]> rows = entityManager.createNativeQuery(LISTED_TAGS + " and v.id in (:videoIds) group by v.id")
+                .setParameter("videoIds", videoIds).getResultList();
+        for (Object[] row : rows) {
+            videos.add(videoTags(row));
+        }
+        return videos;
+    }
+
+    private static VideoTags videoTags(Object[] row) {
+        Object[] tagIds = (Object[]) row[2];
+        int[] ids = new int[tagIds.length];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = ((Number) tagIds[i]).intValue();
+        }
+        return new VideoTags(((Number) row[0]).longValue(), (String) row[1], ids);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<TagCount> tagCounts(Query query) {
+        List<TagCount> counts = new ArrayList<>();
+        for (Object[] row : (List<Object[]>) query.getResultList()) {
+            counts.add(new TagCount((String) row[0], ((Number) row[1]).longValue()));
+        }
+        return counts;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T> find(VideoSearch search, String columns, Function<String, Query> createQuery) {
+        Query query = buildQuery(search, columns, createQuery);
+        return query == null ? new ArrayList<>() : query.getResultList();
+    }
+
+    /**
+     * Returns null when the search cannot match any video.
+     */
+    private static Query buildQuery(VideoSearch search, String columns, Function<String, Query> createQuery) {
+        Map<String, Object> params = new HashMap<>();
+        String where = where(search, params);
+        if (where == null) {
+            return null;
+        }
+        StringBuilder sql = new StringBuilder("select ").append(columns).append(" from video v");
+        if (search.byEngagement()) {
+            sql.append(" join video_engagement e on e.video_id = v.id");
+        }
+        sql.append(" where ").append(where);
+        if (search.hasCursor()) {
+            sql.append(" and (v.created_at, v.id) < (:afterCreatedAt, :afterId)");
+            params.put("afterCreatedAt", search.afterCreatedAt());
+            params.put("afterId", search.afterId());
+        }
+        if (search.sort() == VideoSort.POPULAR) {
+            sql.append(" order by e.popularity desc, e.video_id desc");
+        } else if (search.sort() == VideoSort.TRENDING) {
+            sql.append(" order by e.trending desc, e.video_id desc");
+        } else if (search.byRelevance()) {
+            sql.append(" order by ts_rank_cd(v.search_vector, to_tsquery('english', :tsquery)) desc,")
+                    .append(" v.created_at desc, v.id desc");
+        } else {
+            sql.append(" order by v.created_at desc, v.id desc");
+        }
+        sql.append(" limit :pageSize");
+        params.put("pageSize", search.pageSize());
+        if (!search.hasCursor() && search.skip() > 0) {
+            sql.append(" offset :skip");
+            params.put("skip", search.skip());
+        }
+
+        return withParameters(createQuery.apply(sql.toString()), params);
+    }
+
+    /**
+     * Conditions on video {@code v} that the search filters for, adding their
+     * parameters to {@code params}. Returns null when the search cannot match
+     * any video.
+     */
+    private static String where(VideoSearch search, Map<String, Object> params) {
+        StringBuilder sql = new StringBuilder("v.upload_url is not null and v.thumbnail_url is not null");
+        if (search.hasCountryCode()) {
+            sql.append(" and v.country_code = :countryCode");
+            params.put("countryCode", search.countryCode());
+        }
+        if (search.hasKeyword()) {
+            String tsquery = prefixQuery(search.keywordTerms());
+            if (tsquery.isEmpty()) {
+                // nothing searchable in the keyword, plainto_tsquery matched nothing either
+                return null;
+            }
+            sql.append(" and v.search_vector @@ to_tsquery('english', :tsquery)");
+            params.put("tsquery", tsquery);
+        }
+        if (search.hasTags()) {
+            Integer[] tagIds = search.tagIds().stream().distinct().toArray(Integer[]::new);
+            if (search.tagMatch() == TagMatch.ALL) {
+                sql.append(" and (select count(*) from video_tag vt where vt.video_id = v.id")
+                        .append(" and vt.tag_id = any(cast(:tagIds as integer[]))) = :tagCount");
+                params.put("tagCount", tagIds.length);
+            } else {
+                sql.append(" and exists (select 1 from video_tag vt where vt.video_id = v.id")
+                        .append(" and vt.tag_id = any(cast(:tagIds as integer[])))");
+            }
+            params.put("tagIds", tagIds);
+        }
+        return sql.toString();
+    }
+
+    private static Query withParameters(Query query, Map<String, Object> params) {
+        params.forEach(query::setParameter);
+        return query;
+    }
+
+    /**
+     * Requires every term, each as a prefix so that partially typed words
+     * match.
+     */
+    private static String prefixQuery(List<String> terms) {
+        StringJoiner tsquery = new StringJoiner(" & ");
+        for (String term : terms) {
+            tsquery.add(term + ":*");
+        }
+        return tsquery.toString();
+    }
+}
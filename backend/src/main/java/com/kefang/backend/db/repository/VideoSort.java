@@ -0,0 +1,23 @@
+package com.kefang.backend.db.repository;
+
+/**
+ * Order of video search results.
+ */
+public enum VideoSort {
+    /** newest first */
+    RECENT,
+    /**
+     * best keyword match first, title matches weighing more than description
+     * matches; the same as {@link #RECENT} without a keyword
+     */
+    RELEVANCE,
+    /**
+     * most engaged with first, a save weighing two likes and a comment three
+     */
+    POPULAR,
+    /**
+     * engagement decayed by age, a video needing twice the engagement of one
+     * a day younger to rank above it
+     */
+    TRENDING
+}
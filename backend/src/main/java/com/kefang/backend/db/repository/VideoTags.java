@@ -0,0 +1,7 @@
+package com.kefang.backend.db.repository;
+
+/**
+ * Country and tag ids of a listed video, the tag ids in ascending order.
+ */
+public record VideoTags(long videoId, String countryCode, int[] tagIds) {
+}
@@ -0,0 +1,69 @@
+package com.kefang.backend.service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.kefang.backend.db.repository.VideoRepository;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * When anything /api/videos returns last changed, the validator of its
+ * conditional GETs.
+ * <p>
+ * It starts from the newest upload or update in the catalogue, or from the
+ * time the instance started if that is later, and moves to the current time on
+ * every announced change of a video, its tags or a profile. Deletions, tag and
+ * profile changes leave no trace in the video timestamps, which is why the
+ * announcement time is used rather than the row's, and why a fresh instance
+ * cannot start from the rows alone: it would rebuild the validator of content
+ * changed since. It only ever moves forward.
+ */
+@Service
+public class CatalogueWatermark {
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    private Instant changedAt = Instant.EPOCH;
+
+    @PostConstruct
+    public void load() {
+        Long micros = videoRepository.findLastModifiedMicros();
+        if (micros != null) {
+            advanceTo(Instant.EPOCH.plus(micros, ChronoUnit.MICROS));
+        }
+        // changes made while no instance listened were never announced
+        advance();
+    }
+
+    public synchronized Instant changedAt() {
+        return changedAt;
+    }
+
+    @EventListener
+    public void onVideoChange(VideoChange change) {
+        advance();
+    }
+
+    @EventListener
+    public void onProfileChange(ProfileChange change) {
+        advance();
+    }
+
+    private void advance() {
+        advanceTo(Instant.now().truncatedTo(ChronoUnit.MICROS));
+    }
+
+    /**
+     * Moves to {@code instant}, or one microsecond on if that is not later, so
+     * that every change produces a new validator.
+     */
+    private synchronized void advanceTo(Instant instant) {
+        changedAt = instant.isAfter(changedAt) ? instant : changedAt.plus(1, ChronoUnit.MICROS);
+    }
+}
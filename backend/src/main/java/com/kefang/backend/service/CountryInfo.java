@@ -0,0 +1,7 @@
+package com.kefang.backend.service;
+
+/**
+ * ISO 3166-1 alpha-2 code and English name of a country.
+ */
+public record CountryInfo(String code, String name) {
+}
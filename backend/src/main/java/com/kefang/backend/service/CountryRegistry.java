@@ -0,0 +1,56 @@
+package com.kefang.backend.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.kefang.backend.db.entity.Country;
+import com.kefang.backend.db.repository.CountryRepository;
+
+/**
+ * Immutable in-memory copy of the 'countries' table, loaded once at startup.
+ * The table only changes with a deployment.
+ */
+@Service
+public class CountryRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountryRegistry.class);
+
+    private final List<CountryInfo> countries;
+
+    private final Map<String, CountryInfo> byCode;
+
+    @Autowired
+    public CountryRegistry(CountryRepository countryRepository) {
+        List<CountryInfo> loaded = new ArrayList<>();
+        for (Country country : countryRepository.findAll()) {
+            loaded.add(new CountryInfo(country.getCountryCode(), country.getCountryName()));
+        }
+        loaded.sort(Comparator.comparing(CountryInfo::name));
+        Map<String, CountryInfo> codes = new HashMap<>();
+        for (CountryInfo country : loaded) {
+            codes.put(country.code(), country);
+        }
+        this.countries = List.copyOf(loaded);
+        this.byCode = Map.copyOf(codes);
+        logger.debug("country registry loaded, {} countries", countries.size());
+    }
+
+    /**
+     * All countries, ordered by name.
+     */
+    public List<CountryInfo> all() {
+        return countries;
+    }
+
+    public boolean contains(String countryCode) {
+        return byCode.containsKey(countryCode);
+    }
+}
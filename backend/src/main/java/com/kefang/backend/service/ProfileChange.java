@@ -0,0 +1,16 @@
+package com.kefang.backend.service;
+
+import org.json.JSONObject;
+
+/**
+ * A committed change to one of an account's profiles, as announced by the
+ * database on the 'video_change' channel.
+ */
+public record ProfileChange(long accountId) {
+
+    static final String KEY = "profileAccountId";
+
+    static ProfileChange of(JSONObject json) {
+        return new ProfileChange(json.getLong(KEY));
+    }
+}
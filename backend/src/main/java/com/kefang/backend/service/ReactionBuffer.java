@@ -0,0 +1,230 @@
+package com.kefang.backend.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kefang.backend.db.repository.Reaction;
+import com.kefang.backend.db.repository.VideoRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Records likes and saves in memory and writes them behind, in batches,
+ * instead of one insert per click.
+ * <p>
+ * Pending reactions are kept in a concurrent map from reaction to whether it
+ * was added or taken back, so repeated clicks collapse into their last state
+ * and recording does not contend on a single lock. Every
+ * {@code reactions.flush-interval}, or as soon as
+ * {@code reactions.flush-size} reactions are pending, they are written with
+ * one insert and one delete per reaction type; the triggers on 'likes' and
+ * 'saves' then count them into 'video_engagement'. A reaction recorded again
+ * while being written stays pending for the next flush.
+ * <p>
+ * Reactions not yet written are lost on a crash, at most one flush interval's
+ * worth. They are flushed on shutdown. Once {@code reactions.maximum-pending}
+ * reactions are pending, for instance while the database is unreachable,
+ * recording refuses reactions at once and starts a flush in the background,
+ * rather than buffering more or making the caller wait for the database.
+ * <p>
+ * A batch the database rejects for its data, rather than for being
+ * unavailable, is written again one reaction at a time, and the reactions
+ * still rejected are dropped and counted in {@code reactions.dropped}, so
+ * that one bad reaction cannot hold up all the others.
+ */
+@Service
+public class ReactionBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactionBuffer.class);
+
+    private final Map<Reaction, Boolean> pending = new ConcurrentHashMap<>();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final VideoRepository videoRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final AsyncTaskExecutor taskExecutor;
+
+    private final int flushSize;
+
+    private final int maximumPending;
+
+    private final Counter recorded;
+
+    private final Counter written;
+
+    private final Counter failed;
+
+    private final Counter dropped;
+
+    private final Timer flushes;
+
+    @Autowired
+    public ReactionBuffer(VideoRepository videoRepository, PlatformTransactionManager transactionManager,
+            @Qualifier("applicationTaskExecutor") AsyncTaskExecutor taskExecutor, MeterRegistry meterRegistry,
+            @Value("${reactions.flush-size:1000}") int flushSize,
+            @Value("${reactions.maximum-pending:100000}") int maximumPending) {
+        this.videoRepository = videoRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.taskExecutor = taskExecutor;
+        this.flushSize = flushSize;
+        this.maximumPending = maximumPending;
+        this.recorded = Counter.builder("reactions.recorded").register(meterRegistry);
+        this.written = Counter.builder("reactions.written").register(meterRegistry);
+        this.failed = Counter.builder("reactions.failed").register(meterRegistry);
+        this.dropped = Counter.builder("reactions.dropped").register(meterRegistry);
+        this.flushes = Timer.builder("reactions.flush").register(meterRegistry);
+        Gauge.builder("reactions.pending", pending, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Records that the reaction was added, or taken back when {@code added} is
+     * false, to be written with the next flush.
+     *
+     * @return false when the reaction was refused, because the buffer is full
+     */
+    public boolean record(Reaction reaction, boolean added) {
+        if (pending.size() >= maximumPending) {
+            scheduleFlush();
+            return false;
+        }
+        pending.put(reaction, added);
+        recorded.increment();
+        if (pending.size() >= flushSize) {
+            scheduleFlush();
+        }
+        return true;
+    }
+
+    /**
+     * Flushes on the task executor, unless a flush is already waiting there.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            taskExecutor.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Writes the pending reactions, in batches of {@code reactions.flush-size}
+     * committed one by one. A batch that fails is put back unless recorded
+     * again meanwhile, and flushing stops until the next attempt; one that is
+     * rejected for its data is written one reaction at a time instead.
+     */
+    @PreDestroy
+    @Scheduled(initialDelayString = "${reactions.flush-interval:PT1S}", fixedDelayString = "${reactions.flush-interval:PT1S}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            int batch = flushSize;
+            // a short batch means the buffer was drained, newer reactions wait for the next flush
+            while (batch == flushSize) {
+                List<Reaction> added = new ArrayList<>();
+                List<Reaction> removed = new ArrayList<>();
+                for (Map.Entry<Reaction, Boolean> entry : pending.entrySet()) {
+                    if (added.size() + removed.size() >= flushSize) {
+                        break;
+                    }
+                    // only take the state seen, a newer one stays for the next batch
+                    if (pending.remove(entry.getKey(), entry.getValue())) {
+                        (entry.getValue() ? added : removed).add(entry.getKey());
+                    }
+                }
+                if (added.isEmpty() && removed.isEmpty() || !write(added, removed)) {
+                    return;
+                }
+                batch = added.size() + removed.size();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private boolean write(List<Reaction> added, List<Reaction> removed) {
+        long start = System.nanoTime();
+        try {
+            writeBatch(added, removed);
+            written.increment(added.size() + removed.size());
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            logger.warn("{} reactions rejected, writing them one by one", added.size() + removed.size(), e);
+            if (!writeEach(removed, false)) {
+                putBack(added, List.of());
+                return false;
+            }
+            return writeEach(added, true);
+        } catch (RuntimeException e) {
+            logger.warn("failed to write {} reactions, keeping them for the next flush", added.size() + removed.size(),
+                    e);
+            putBack(added, removed);
+            return false;
+        } finally {
+            flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Writes the reactions one per transaction, dropping those rejected for
+     * their data. Puts back the rest once one fails otherwise.
+     */
+    private boolean writeEach(List<Reaction> reactions, boolean added) {
+        for (int i = 0; i < reactions.size(); ++i) {
+            List<Reaction> one = reactions.subList(i, i + 1);
+            try {
+                writeBatch(added ? one : List.of(), added ? List.of() : one);
+                written.increment();
+            } catch (DataIntegrityViolationException e) {
+                logger.warn("dropping reaction {} rejected by the database", reactions.get(i), e);
+                dropped.increment();
+            } catch (RuntimeException e) {
+                logger.warn("failed to write {} reactions, keeping them for the next flush", reactions.size() - i, e);
+                List<Reaction> rest = reactions.subList(i, reactions.size());
+                putBack(added ? rest : List.of(), added ? List.of() : rest);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeBatch(List<Reaction> added, List<Reaction> removed) {
+        transactionTemplate.executeWithoutResult(status -> {
+            videoRepository.deleteReactions(removed);
+            videoRepository.insertReactions(added);
+        });
+    }
+
+    private void putBack(List<Reaction> added, List<Reaction> removed) {
+        failed.increment(added.size() + removed.size());
+        added.forEach(reaction -> pending.putIfAbsent(reaction, true));
+        removed.forEach(reaction -> pending.putIfAbsent(reaction, false));
+    }
+}
@@ -0,0 +1,249 @@
+package com.kefang.backend.service;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Caps the number of searches running at once at a limit that adapts to their
+ * latency, in the manner of TCP Vegas.
+ * <p>
+ * The shortest latency seen stands for the latency without load. Comparing
+ * each completed search's latency against it estimates how many searches are
+ * queueing behind the limit, on the connection pool or in postgres:
+ * {@code limit * (1 - shortest / latency)}. While that estimate is small the
+ * limit grows, when it passes {@code 6 log10(limit)} the limit shrinks, and it
+ * shrinks at once on a failed search. Samples taken while fewer than half the
+ * permits are in use leave the limit and the shortest latency alone, since
+ * they say nothing about it. The shortest latency is forgotten every so many
+ * samples, so that a slower catalogue raises it again.
+ * <p>
+ * Only searches that ran a query, as noted by {@link #queried()} on the thread
+ * holding the permit, and failed ones are sampled: a search answered from
+ * cache, or refused before reaching the database, takes far less than one
+ * that queried and would drag the shortest latency down.
+ * <p>
+ * Past the limit up to {@code videos.search-limit.queue-size} searches wait
+ * up to {@code videos.search-limit.queue-timeout} for a permit; the rest are
+ * refused at once. Meters: {@code video.search.limit},
+ * {@code video.search.inflight}, {@code video.search.queued} and
+ * {@code video.search.rejected}.
+ */
+@Component
+public class SearchConcurrencyLimiter {
+
+    /** samples after which the shortest latency is measured afresh, per permit of the limit */
+    private static final int PROBE_SAMPLES_PER_PERMIT = 30;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    /** the permit taken last on each thread, to be marked by {@link #queried()} */
+    private final ThreadLocal<Permit> held = new ThreadLocal<>();
+
+    private final int minimumLimit;
+
+    private final int maximumLimit;
+
+    private final int queueSize;
+
+    private final long queueTimeoutNanos;
+
+    private final Counter rejected;
+
+    private double limit;
+
+    private int inflight;
+
+    private int queued;
+
+    private long shortestNanos = Long.MAX_VALUE;
+
+    private long samples;
+
+    @Autowired
+    public SearchConcurrencyLimiter(MeterRegistry meterRegistry,
+            @Value("${videos.search-limit.initial:20}") int initialLimit,
+            @Value("${videos.search-limit.minimum:4}") int minimumLimit,
+            @Value("${videos.search-limit.maximum:100}") int maximumLimit,
+            @Value("${videos.search-limit.queue-size:16}") int queueSize,
+            @Value("${videos.search-limit.queue-timeout:PT0.05S}") Duration queueTimeout) {
+        this.limit = initialLimit;
+        this.minimumLimit = minimumLimit;
+        this.maximumLimit = maximumLimit;
+        this.queueSize = queueSize;
+        this.queueTimeoutNanos = queueTimeout.toNanos();
+        this.rejected = Counter.builder("video.search.rejected").register(meterRegistry);
+        Gauge.builder("video.search.limit", this, SearchConcurrencyLimiter::limit).register(meterRegistry);
+        Gauge.builder("video.search.inflight", this, SearchConcurrencyLimiter::inflight).register(meterRegistry);
+        Gauge.builder("video.search.queued", this, limiter -> limiter.locked(() -> limiter.queued))
+                .register(meterRegistry);
+    }
+
+    /**
+     * A permit to run one search, to be released once it completed.
+     */
+    public final class Permit {
+
+        private final long startNanos = System.nanoTime();
+
+        private final int inflightAtStart;
+
+        private volatile boolean queried;
+
+        private Permit(int inflightAtStart) {
+            this.inflightAtStart = inflightAtStart;
+        }
+
+        /**
+         * Whether the search ran a query, so its latency is worth sampling.
+         */
+        public boolean isQueried() {
+            return queried;
+        }
+
+        /**
+         * Releases the permit and samples the search's latency.
+         *
+         * @param failed whether the search failed, which counts as a sign of
+         *               overload
+         */
+        public void release(boolean failed) {
+            release(true, failed);
+        }
+
+        /**
+         * Releases the permit without sampling, for a search that ran no query
+         * or did not complete normally.
+         */
+        public void discard() {
+            release(false, false);
+        }
+
+        private void release(boolean sampled, boolean failed) {
+            if (held.get() == this) {
+                held.remove();
+            }
+            lock.lock();
+            try {
+                --inflight;
+                released.signal();
+                if (sampled) {
+                    sample(System.nanoTime() - startNanos, inflightAtStart, failed);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes a permit, waiting in the queue while the limit is reached.
+     *
+     * @return null when the search is refused
+     */
+    public Permit tryAcquire() throws InterruptedException {
+        lock.lock();
+        try {
+            if (inflight < (int) limit) {
+                return hold(new Permit(++inflight));
+            }
+            if (queued >= queueSize) {
+                rejected.increment();
+                return null;
+            }
+            ++queued;
+            try {
+                long remaining = queueTimeoutNanos;
+                while (inflight >= (int) limit) {
+                    if (remaining <= 0) {
+                        rejected.increment();
+                        return null;
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+                return hold(new Permit(++inflight));
+            } finally {
+                --queued;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notes that the search holding a permit on this thread runs a query. Does
+     * nothing on a thread without one.
+     */
+    public void queried() {
+        Permit permit = held.get();
+        if (permit != null) {
+            permit.queried = true;
+        }
+    }
+
+    public double limit() {
+        return locked(() -> limit);
+    }
+
+    public int inflight() {
+        return locked(() -> inflight);
+    }
+
+    /**
+     * Adjusts the limit to one completed search. Called with the lock held.
+     */
+    void sample(long latencyNanos, int inflightAtStart, boolean failed) {
+        double log = Math.max(1, Math.log10(limit));
+        double next;
+        if (failed) {
+            next = limit - log;
+        } else if (inflightAtStart * 2 < limit) {
+            return;
+        } else {
+            if (++samples % (PROBE_SAMPLES_PER_PERMIT * (long) limit) == 0) {
+                shortestNanos = latencyNanos;
+            }
+            shortestNanos = Math.min(shortestNanos, Math.max(latencyNanos, 1));
+            double queueing = limit * (1 - (double) shortestNanos / Math.max(latencyNanos, 1));
+            if (queueing <= log) {
+                next = limit + 6 * log;
+            } else if (queueing < 3 * log) {
+                next = limit + log;
+            } else if (queueing > 6 * log) {
+                next = limit - log;
+            } else {
+                return;
+            }
+        }
+        double previous = limit;
+        limit = Math.max(minimumLimit, Math.min(maximumLimit, next));
+        if (limit > previous) {
+            released.signalAll();
+        }
+    }
+
+    private Permit hold(Permit permit) {
+        held.set(permit);
+        return permit;
+    }
+
+    private <T> T locked(Supplier<T> read) {
+        lock.lock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.kefang.backend.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kefang.backend.db.repository.VideoRepository;
+import com.kefang.backend.db.repository.VideoTags;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Finds videos similar to a given one by the tags they share, from a
+ * {@link VideoTagIndex} of every listed video held in memory, without joining
+ * 'video_tag' per view.
+ * <p>
+ * The index is built from the database on startup and kept up to date with
+ * the {@link VideoChange}s announced: every
+ * {@code videos.similar.refresh-interval} the videos changed since are read
+ * again from the primary, a thousand per query, so that a bulk upload does not
+ * cost a query per tag. After {@link VideoChange#EVERYTHING} the index is
+ * built again instead, which also clears out videos unlisted while still
+ * tagged.
+ * <p>
+ * Meters: {@code videos.similar.index.videos} and the approximate heap taken,
+ * {@code videos.similar.index.bytes}.
+ */
+@Service
+public class SimilarVideos {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimilarVideos.class);
+
+    private static final int REFRESH_CHUNK_SIZE = 1000;
+
+    private final VideoRepository videoRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int fetchSize;
+
+    /** ids of the videos changed since the last refresh, with the ids of the tags changed */
+    private final Map<Long, Set<Integer>> changed = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean everything = new AtomicBoolean();
+
+    private volatile VideoTagIndex index = new VideoTagIndex();
+
+    @Autowired
+    public SimilarVideos(VideoRepository videoRepository, PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry, @Value("${videos.similar.fetch-size:10000}") int fetchSize) {
+        this.videoRepository = videoRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.fetchSize = fetchSize;
+        Gauge.builder("videos.similar.index.videos", this, similar -> similar.index.size()).register(meterRegistry);
+        Gauge.builder("videos.similar.index.bytes", this, similar -> similar.index.estimatedBytes())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Builds the index afresh. Reads from the primary, as a replica may not
+     * have caught up with the changes announced.
+     */
+    @PostConstruct
+    public synchronized void reload() {
+        long start = System.nanoTime();
+        index = transactionTemplate.execute(status -> {
+            try (Stream<VideoTags> videos = videoRepository.streamListedTags(fetchSize)) {
+                return VideoTagIndex.build(videos.iterator());
+            }
+        });
+        logger.debug("similar videos indexed, {} videos and {} tags in {} ms", index.size(), index.tags(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Notes the video changed, to be read again on the next refresh.
+     */
+    @EventListener
+    public void onVideoChange(VideoChange change) {
+        if (change.isEverything()) {
+            everything.set(true);
+            return;
+        }
+        changed.compute(change.videoId(), (videoId, tagIds) -> {
+            Set<Integer> changedTags = tagIds == null ? new HashSet<>() : tagIds;
+            if (change.isTagChange()) {
+                changedTags.add(change.tagId());
+            }
+            return changedTags;
+        });
+    }
+
+    /**
+     * Reads the videos changed since the last refresh again, and indexes,
+     * drops or untags them accordingly. Builds the index afresh instead after
+     * {@link VideoChange#EVERYTHING}. Videos that could not be read are left
+     * for the next refresh.
+     */
+    @Scheduled(initialDelayString = "${videos.similar.refresh-interval:PT1S}", fixedDelayString = "${videos.similar.refresh-interval:PT1S}")
+    public synchronized void refresh() {
+        if (everything.getAndSet(false)) {
+            // changes announced until now are part of the new index
+            changed.clear();
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                everything.set(true);
+                throw e;
+            }
+            return;
+        }
+        List<Long> videoIds = new ArrayList<>(changed.keySet());
+        for (int from = 0; from < videoIds.size(); from += REFRESH_CHUNK_SIZE) {
+            // taken out before reading, so that a change meanwhile is read on the next refresh
+            Map<Long, Set<Integer>> chunk = new HashMap<>();
+            for (Long videoId : videoIds.subList(from, Math.min(from + REFRESH_CHUNK_SIZE, videoIds.size()))) {
+                chunk.put(videoId, changed.remove(videoId));
+            }
+            // outside of a read-only transaction, so from the primary
+            Map<Long, VideoTags> listed = new HashMap<>();
+            try {
+                for (VideoTags video : videoRepository.findListedTagsByVideoIdIn(chunk.keySet())) {
+                    listed.put(video.videoId(), video);
+                }
+            } catch (RuntimeException e) {
+                // back for the next refresh, along with the changes meanwhile
+                chunk.forEach((videoId, tagIds) -> changed.merge(videoId, tagIds, (meanwhile, taken) -> {
+                    meanwhile.addAll(taken);
+                    return meanwhile;
+                }));
+                throw e;
+            }
+            chunk.forEach((videoId, tagIds) -> {
+                VideoTags video = listed.get(videoId);
+                if (video == null) {
+                    index.remove(videoId);
+                } else {
+                    index.put(video);
+                }
+                for (int tagId : tagIds) {
+                    if (video == null || Arrays.binarySearch(video.tagIds(), tagId) < 0) {
+                        index.untag(videoId, tagId);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Ids of up to {@code limit} listed videos sharing tags with the given
+     * one, the most similar first, as scored by {@link VideoTagIndex#similar}.
+     */
+    public List<Long> similar(VideoTags video, String countryCode, int limit) {
+        return index.similar(video, countryCode, limit);
+    }
+}
@@ -0,0 +1,100 @@
+package com.kefang.backend.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.kefang.backend.db.entity.Tag;
+import com.kefang.backend.db.repository.TagRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * In-memory word to id dictionary of the 'tag' table.
+ * <p>
+ * The whole table is loaded at startup and reloaded every
+ * {@code tags.dictionary.refresh-interval}, which bounds how stale the
+ * dictionary can get. Words that are not in the dictionary are looked up with
+ * one batched query and merged in.
+ */
+@Service
+public class TagDictionary {
+
+    private static final Logger logger = LoggerFactory.getLogger(TagDictionary.class);
+
+    private final TagRepository tagRepository;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private volatile Map<String, Integer> wordToId = Map.of();
+
+    @Autowired
+    public TagDictionary(TagRepository tagRepository, MeterRegistry meterRegistry) {
+        this.tagRepository = tagRepository;
+        this.hits = Counter.builder("tags.dictionary.lookups").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("tags.dictionary.lookups").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("tags.dictionary.size", this, dictionary -> dictionary.wordToId.size()).register(meterRegistry);
+    }
+
+    @PostConstruct
+    @Scheduled(initialDelayString = "${tags.dictionary.refresh-interval:PT5M}", fixedDelayString = "${tags.dictionary.refresh-interval:PT5M}")
+    public synchronized void refresh() {
+        Map<String, Integer> loaded = new HashMap<>();
+        for (Tag tag : tagRepository.findAll()) {
+            loaded.put(tag.getWord(), (int) tag.getId());
+        }
+        wordToId = Map.copyOf(loaded);
+        logger.debug("tag dictionary reloaded, {} words", loaded.size());
+    }
+
+    /**
+     * Resolves tag words to distinct tag ids. Words that do not exist in the
+     * 'tag' table are left out of the result.
+     */
+    public Integer[] resolve(List<String> words) {
+        Map<String, Integer> dictionary = wordToId;
+        List<Integer> ids = new ArrayList<>(words.size());
+        Set<String> unknown = new LinkedHashSet<>();
+        for (String word : new LinkedHashSet<>(words)) {
+            Integer id = dictionary.get(word);
+            if (id != null) {
+                ids.add(id);
+            } else {
+                unknown.add(word);
+            }
+        }
+        hits.increment(ids.size());
+        if (!unknown.isEmpty()) {
+            misses.increment(unknown.size());
+            Map<String, Integer> found = new HashMap<>();
+            for (Tag tag : tagRepository.findByWordIn(unknown)) {
+                found.put(tag.getWord(), (int) tag.getId());
+            }
+            if (!found.isEmpty()) {
+                ids.addAll(found.values());
+                merge(found);
+            }
+        }
+        return ids.toArray(new Integer[0]);
+    }
+
+    private synchronized void merge(Map<String, Integer> found) {
+        Map<String, Integer> merged = new HashMap<>(wordToId);
+        merged.putAll(found);
+        wordToId = Map.copyOf(merged);
+    }
+}
@@ -0,0 +1,377 @@
+package com.kefang.backend.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.kefang.backend.db.entity.Tag;
+import com.kefang.backend.db.repository.TagCount;
+import com.kefang.backend.db.repository.TagRepository;
+import com.kefang.backend.db.repository.VideoRepository;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Suggests tags for a typed prefix from an in-memory index, without a query
+ * per keystroke.
+ * <p>
+ * Every word of a tag is a key, so "emb" suggests "Hand Embroidery" as well
+ * as "Embroidery". The lower-cased keys are kept in one sorted array, in
+ * which a prefix selects a contiguous range by binary search. Tags in the
+ * range are ranked by the number of listed videos carrying them. The best
+ * {@value #PRECOMPUTED_LIMIT} tags of every prefix up to
+ * {@value #PRECOMPUTED_LENGTH} characters long, whose ranges are the widest,
+ * are ranked in advance.
+ * <p>
+ * Every {@code tags.suggest.refresh-interval} the tags added since are merged
+ * into the keys, and the video counts of the tags whose videos were announced
+ * changed since are read again from 'video_count'; nothing is queried when
+ * nothing changed. The whole table is reloaded with the dictionary, every
+ * {@code tags.dictionary.refresh-interval}, to drop deleted tags.
+ */
+@Service
+public class TagSuggestions {
+
+    private static final Logger logger = LoggerFactory.getLogger(TagSuggestions.class);
+
+    private static final Pattern WORD_START = Pattern.compile("(?<=\\s)(?=\\S)");
+
+    static final int PRECOMPUTED_LENGTH = 2;
+
+    static final int PRECOMPUTED_LIMIT = 50;
+
+    private static final int REFRESH_CHUNK_SIZE = 1000;
+
+    private final TagRepository tagRepository;
+
+    private final VideoRepository videoRepository;
+
+    /** tags added to or removed from a video since the last refresh */
+    private final Set<Long> changedTags = ConcurrentHashMap.newKeySet();
+
+    /** videos otherwise changed since the last refresh, which may have been listed or unlisted */
+    private final Set<Long> changedVideos = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean everything = new AtomicBoolean();
+
+    private volatile Index index = Index.build(List.of(), Map.of());
+
+    @Autowired
+    public TagSuggestions(TagRepository tagRepository, VideoRepository videoRepository) {
+        this.tagRepository = tagRepository;
+        this.videoRepository = videoRepository;
+    }
+
+    @PostConstruct
+    @Scheduled(initialDelayString = "${tags.dictionary.refresh-interval:PT5M}", fixedDelayString = "${tags.dictionary.refresh-interval:PT5M}")
+    public synchronized void reload() {
+        // changes announced until now are counted below
+        everything.set(false);
+        changedTags.clear();
+        changedVideos.clear();
+        List<Entry> tags = new ArrayList<>();
+        for (Tag tag : tagRepository.findAll()) {
+            tags.add(new Entry(tag.getId(), tag.getWord()));
+        }
+        index = Index.build(tags, videoRepository.countListedPerTag());
+        logger.debug("tag suggestions reloaded, {} tags", tags.size());
+    }
+
+    /**
+     * Notes the tags whose counts the change may alter, to be read again on
+     * the next refresh. Deleting a video deletes its tags, which are announced
+     * on their own.
+     */
+    @EventListener
+    public void onVideoChange(VideoChange change) {
+        if (change.isEverything()) {
+            everything.set(true);
+        } else if (change.isTagChange()) {
+            changedTags.add(change.tagId().longValue());
+        } else {
+            changedVideos.add(change.videoId());
+        }
+    }
+
+    @Scheduled(initialDelayString = "${tags.suggest.refresh-interval:PT10S}", fixedDelayString = "${tags.suggest.refresh-interval:PT10S}")
+    public synchronized void refresh() {
+        Index current = index;
+        List<Tag> added = tagRepository.findByIdGreaterThan(current.maxId());
+        List<Entry> entries = new ArrayList<>(added.size());
+        for (Tag tag : added) {
+            entries.add(new Entry(tag.getId(), tag.getWord()));
+        }
+        if (everything.getAndSet(false)) {
+            // taken out before reading, so that a change meanwhile is read on the next refresh
+            changedTags.clear();
+            changedVideos.clear();
+            index = current.with(entries, videoRepository.countListedPerTag(), null);
+            return;
+        }
+        Set<Long> tagIds = new HashSet<>(drain(changedTags));
+        List<Long> videoIds = drain(changedVideos);
+        Map<Long, Long> counts = new HashMap<>();
+        try {
+            for (List<Long> chunk : chunks(videoIds)) {
+                tagIds.addAll(videoRepository.findTagIdsByVideoIdIn(chunk));
+            }
+            for (Entry tag : entries) {
+                tagIds.add(tag.id());
+            }
+            for (List<Long> chunk : chunks(tagIds)) {
+                counts.putAll(videoRepository.countListedByTagIdIn(chunk));
+            }
+        } catch (RuntimeException e) {
+            // what was taken out is no longer known apart, so count everything next time
+            everything.set(true);
+            throw e;
+        }
+        if (!tagIds.isEmpty()) {
+            index = current.with(entries, counts, tagIds);
+        }
+    }
+
+    /**
+     * Up to {@code limit} tags with a word starting with {@code prefix},
+     * ignoring case, the ones on most videos first. An empty prefix matches
+     * every tag.
+     */
+    public List<TagCount> suggest(String prefix, int limit) {
+        Index index = this.index;
+        String key = prefix.strip().toLowerCase(Locale.ROOT);
+        int[] top;
+        int size;
+        if (key.length() <= PRECOMPUTED_LENGTH && limit <= PRECOMPUTED_LIMIT) {
+            top = index.precomputed().getOrDefault(key, new int[0]);
+            size = Math.min(limit, top.length);
+        } else {
+            top = index.select(lowerBound(index.keys(), key), lowerBound(index.keys(), key + Character.MAX_VALUE),
+                    limit);
+            size = top.length;
+        }
+        List<TagCount> suggestions = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            suggestions.add(new TagCount(index.tags().get(top[i]).word(), index.videos()[top[i]]));
+        }
+        return suggestions;
+    }
+
+    private static List<Long> drain(Set<Long> ids) {
+        List<Long> drained = new ArrayList<>();
+        for (Long id : ids) {
+            if (ids.remove(id)) {
+                drained.add(id);
+            }
+        }
+        return drained;
+    }
+
+    private static List<List<Long>> chunks(Collection<Long> ids) {
+        List<Long> all = new ArrayList<>(ids);
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += REFRESH_CHUNK_SIZE) {
+            chunks.add(all.subList(from, Math.min(from + REFRESH_CHUNK_SIZE, all.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Position of the first key not less than {@code key}.
+     */
+    private static int lowerBound(String[] keys, String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    record Entry(long id, String word) {
+    }
+
+    /**
+     * Sorted keys and, for each, the position of its tag in {@code tags}, and
+     * the best tags of every short prefix. Keys of equal text keep no
+     * particular order.
+     */
+    record Index(List<Entry> tags, long[] videos, Map<Long, Integer> positions, String[] keys, int[] keyTags,
+            Map<String, int[]> precomputed, long maxId) {
+
+        static Index build(List<Entry> tags, Map<Long, Long> counts) {
+            return new Index(List.of(), new long[0], Map.of(), new String[0], new int[0], Map.of(), 0)
+                    .with(tags, counts, null);
+        }
+
+        /**
+         * A copy with the {@code added} tags merged in, and the counts of the
+         * tags with the given ids, or of every tag when null, set from
+         * {@code counts}; tags missing from {@code counts} are on no video.
+         * Only the keys of the added tags are sorted.
+         */
+        Index with(List<Entry> added, Map<Long, Long> counts, Collection<Long> countedIds) {
+            List<Entry> allTags = new ArrayList<>(tags.size() + added.size());
+            allTags.addAll(tags);
+            allTags.addAll(added);
+            Map<Long, Integer> allPositions = new HashMap<>(positions);
+            long[] allVideos = Arrays.copyOf(videos, allTags.size());
+            long newMaxId = maxId;
+            for (int i = tags.size(); i < allTags.size(); ++i) {
+                allPositions.put(allTags.get(i).id(), i);
+                newMaxId = Math.max(newMaxId, allTags.get(i).id());
+            }
+            if (countedIds == null) {
+                for (int i = 0; i < allTags.size(); ++i) {
+                    allVideos[i] = counts.getOrDefault(allTags.get(i).id(), 0L);
+                }
+            } else {
+                for (Long id : countedIds) {
+                    Integer position = allPositions.get(id);
+                    if (position != null) {
+                        allVideos[position] = counts.getOrDefault(id, 0L);
+                    }
+                }
+            }
+
+            String[] allKeys = keys;
+            int[] allKeyTags = keyTags;
+            if (!added.isEmpty()) {
+                List<String> newKeys = new ArrayList<>();
+                List<Integer> newKeyTags = new ArrayList<>();
+                for (int i = tags.size(); i < allTags.size(); ++i) {
+                    // the whole tag and what follows each later word start, so that
+                    // prefixes spanning several words match too
+                    String word = allTags.get(i).word().strip().toLowerCase(Locale.ROOT);
+                    newKeys.add(word);
+                    newKeyTags.add(i);
+                    Matcher start = WORD_START.matcher(word);
+                    while (start.find()) {
+                        newKeys.add(word.substring(start.start()));
+                        newKeyTags.add(i);
+                    }
+                }
+                Integer[] order = new Integer[newKeys.size()];
+                for (int i = 0; i < order.length; ++i) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> newKeys.get(a).compareTo(newKeys.get(b)));
+                allKeys = new String[keys.length + order.length];
+                allKeyTags = new int[allKeys.length];
+                int from = 0;
+                int next = 0;
+                for (int i = 0; i < allKeys.length; ++i) {
+                    if (next == order.length
+                            || from < keys.length && keys[from].compareTo(newKeys.get(order[next])) <= 0) {
+                        allKeys[i] = keys[from];
+                        allKeyTags[i] = keyTags[from++];
+                    } else {
+                        allKeys[i] = newKeys.get(order[next]);
+                        allKeyTags[i] = newKeyTags.get(order[next++]);
+                    }
+                }
+            }
+            Index unranked = new Index(List.copyOf(allTags), allVideos, Map.copyOf(allPositions), allKeys,
+                    allKeyTags, Map.of(), newMaxId);
+            return new Index(unranked.tags, allVideos, unranked.positions, allKeys, allKeyTags,
+                    unranked.precompute(), newMaxId);
+        }
+
+        /**
+         * The best {@value #PRECOMPUTED_LIMIT} tags of each prefix of up to
+         * {@value #PRECOMPUTED_LENGTH} characters that any key starts with.
+         */
+        private Map<String, int[]> precompute() {
+            Map<String, int[]> best = new HashMap<>();
+            best.put("", select(0, keys.length, PRECOMPUTED_LIMIT));
+            for (int length = 1; length <= PRECOMPUTED_LENGTH; ++length) {
+                int from = 0;
+                while (from < keys.length) {
+                    if (keys[from].length() < length) {
+                        ++from;
+                        continue;
+                    }
+                    // keys sharing the prefix are next to each other
+                    String prefix = keys[from].substring(0, length);
+                    int to = from + 1;
+                    while (to < keys.length && keys[to].startsWith(prefix)) {
+                        ++to;
+                    }
+                    best.put(prefix, select(from, to, PRECOMPUTED_LIMIT));
+                    from = to;
+                }
+            }
+            return Map.copyOf(best);
+        }
+
+        /**
+         * Positions of up to {@code limit} tags of the keys in
+         * {@code [from, to)}, best ranked first.
+         */
+        int[] select(int from, int to, int limit) {
+            int[] top = new int[Math.min(limit, tags.size())];
+            int size = 0;
+            for (int i = from; i < to; ++i) {
+                int tag = keyTags[i];
+                // a tag seen before is either among the best so far, or ranks
+                // behind all of them and still does
+                if (contains(top, size, tag)) {
+                    continue;
+                }
+                // insertion into the few best found so far
+                int at = size;
+                while (at > 0 && ranksBefore(tag, top[at - 1])) {
+                    --at;
+                }
+                if (at == top.length) {
+                    continue;
+                }
+                System.arraycopy(top, at, top, at + 1, Math.min(size, top.length - 1) - at);
+                top[at] = tag;
+                size = Math.min(size + 1, top.length);
+            }
+            return size == top.length ? top : Arrays.copyOf(top, size);
+        }
+
+        private static boolean contains(int[] top, int size, int tag) {
+            for (int i = 0; i < size; ++i) {
+                if (top[i] == tag) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Whether tag {@code a} ranks before tag {@code b}: on more videos, or
+         * on as many and first in alphabetical order.
+         */
+        boolean ranksBefore(int a, int b) {
+            if (videos[a] != videos[b]) {
+                return videos[a] > videos[b];
+            }
+            return tags.get(a).word().compareToIgnoreCase(tags.get(b).word()) < 0;
+        }
+    }
+}
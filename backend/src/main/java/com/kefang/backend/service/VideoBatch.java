@@ -0,0 +1,14 @@
+package com.kefang.backend.service;
+
+import java.util.List;
+import java.util.Map;
+
+import com.kefang.backend.db.repository.VideoCard;
+
+/**
+ * Videos fetched by id, in the order asked for and with their author
+ * profiles, the tag words of each by video id, and the ids of the videos
+ * that do not exist.
+ */
+public record VideoBatch(List<VideoCard> videos, Map<Long, List<String>> tags, List<Long> missing) {
+}
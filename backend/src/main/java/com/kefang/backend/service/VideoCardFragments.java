@@ -0,0 +1,71 @@
+package com.kefang.backend.service;
+
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kefang.backend.db.repository.VideoCard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Pre-rendered JSON of video cards, profile included.
+ * <p>
+ * Entries are keyed by the whole card, the very values the JSON is rendered
+ * from, so a card read before a change can only ever find or store the JSON
+ * of what it held, and a card read after finds nothing older. Changes
+ * therefore drop nothing: entries of superseded cards are no longer looked up
+ * and are evicted in time. The cache is bounded by
+ * {@code videos.fragment-cache.maximum-bytes}, keys included.
+ */
+@Service
+public class VideoCardFragments {
+
+    /**
+     * Rough heap size of a card and the cache entry holding it, beyond the
+     * text it shares with its JSON.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 400;
+
+    private final Cache<VideoCard, SerializableString> cache;
+
+    @Autowired
+    public VideoCardFragments(MeterRegistry meterRegistry,
+            @Value("${videos.fragment-cache.maximum-bytes:67108864}") long maximumBytes) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumBytes)
+                // the JSON bytes and its string, and about as much again of text in the card
+                .weigher((VideoCard video, SerializableString fragment) -> 3 * fragment.asUnquotedUTF8().length
+                        + ENTRY_OVERHEAD_BYTES)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "video.fragments");
+    }
+
+    /**
+     * Returns the cached JSON of {@code video}, rendering and caching it on a
+     * miss.
+     */
+    public SerializableString get(VideoCard video, Function<VideoCard, SerializableString> render) {
+        return cache.get(video, render);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @EventListener
+    public void onVideoChange(VideoChange change) {
+        if (change.isEverything()) {
+            // most entries are superseded, free their room at once
+            cache.invalidateAll();
+        }
+    }
+}
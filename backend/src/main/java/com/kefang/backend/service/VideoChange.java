@@ -0,0 +1,37 @@
+package com.kefang.backend.service;
+
+import org.json.JSONObject;
+
+/**
+ * A committed change to a video row or to one of its tags, as announced by
+ * the database on the 'video_change' channel. {@link #EVERYTHING} stands for
+ * changes that cannot be narrowed down, such as a truncate or notifications
+ * missed while the listener was disconnected.
+ */
+public record VideoChange(Long videoId, String countryCode, String oldCountryCode, Integer tagId) {
+
+    public static final VideoChange EVERYTHING = new VideoChange(null, null, null, null);
+
+    public boolean isEverything() {
+        return videoId == null;
+    }
+
+    public boolean isTagChange() {
+        return tagId != null;
+    }
+
+    public static VideoChange parse(String payload) {
+        return of(new JSONObject(payload));
+    }
+
+    static VideoChange of(JSONObject json) {
+        if (json.optBoolean("truncated") || json.isNull("videoId")) {
+            return EVERYTHING;
+        }
+        return new VideoChange(
+                json.getLong("videoId"),
+                json.isNull("countryCode") ? null : json.getString("countryCode"),
+                json.isNull("oldCountryCode") ? null : json.getString("oldCountryCode"),
+                json.isNull("tagId") ? null : json.getInt("tagId"));
+    }
+}
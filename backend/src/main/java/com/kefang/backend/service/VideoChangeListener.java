@@ -0,0 +1,140 @@
+package com.kefang.backend.service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.json.JSONObject;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import com.kefang.backend.db.ReplicaRoutingDataSource;
+
+/**
+ * Listens on the 'video_change' channel and republishes every notification as
+ * a {@link VideoChange} or {@link ProfileChange} application event.
+ * <p>
+ * The listener keeps its own connection outside of the pool, since it is held
+ * for the lifetime of the application. After (re)connecting it publishes
+ * {@link VideoChange#EVERYTHING}, because changes committed while it was not
+ * listening are lost.
+ * <p>
+ * With a replica, reads are held on the primary after each notification, see
+ * {@link ReplicaRoutingDataSource#holdReads()}: caches refilled after a change
+ * would otherwise read the replica from before it, and keep that under the
+ * validators of the change.
+ */
+@Component
+@ConditionalOnProperty(name = "videos.change-listener.enabled", matchIfMissing = true)
+public class VideoChangeListener implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoChangeListener.class);
+
+    private static final String CHANNEL = "video_change";
+
+    private static final int POLL_MILLIS = 1000;
+
+    private static final long RECONNECT_MILLIS = 5000;
+
+    private final DataSourceProperties dataSourceProperties;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final ReplicaRoutingDataSource replicaRouting;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    @Autowired
+    public VideoChangeListener(DataSourceProperties dataSourceProperties, ApplicationEventPublisher eventPublisher,
+            ObjectProvider<ReplicaRoutingDataSource> replicaRouting) {
+        this.dataSourceProperties = dataSourceProperties;
+        this.eventPublisher = eventPublisher;
+        this.replicaRouting = replicaRouting.getIfAvailable();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(this::listen, "video-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("listen " + CHANNEL);
+                }
+                publish(VideoChange.EVERYTHING);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        publish(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("lost connection listening on '{}', reconnecting in {} ms", CHANNEL, RECONNECT_MILLIS, e);
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void publish(String payload) {
+        Object change;
+        try {
+            JSONObject json = new JSONObject(payload);
+            change = json.has(ProfileChange.KEY) ? ProfileChange.of(json) : VideoChange.of(json);
+        } catch (RuntimeException e) {
+            logger.error("malformed '{}' notification: {}", CHANNEL, payload, e);
+            change = VideoChange.EVERYTHING;
+        }
+        publish(change);
+    }
+
+    private void publish(Object change) {
+        if (replicaRouting != null) {
+            replicaRouting.holdReads();
+        }
+        try {
+            eventPublisher.publishEvent(change);
+        } catch (RuntimeException e) {
+            logger.error("failed to handle {}", change, e);
+        }
+    }
+}
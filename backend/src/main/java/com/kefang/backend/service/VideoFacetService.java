@@ -0,0 +1,251 @@
+package com.kefang.backend.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kefang.backend.db.repository.TagCount;
+import com.kefang.backend.db.repository.TagMatch;
+import com.kefang.backend.db.repository.VideoRepository;
+import com.kefang.backend.db.repository.VideoSearch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Counts the videos a search matches and the tags among them.
+ * <p>
+ * Searches filtering by country and at most one tag are answered from the
+ * counts maintained in 'video_count'. Keyword and multi-tag searches count
+ * only the newest {@code videos.facets.scan-limit} matches, which bounds
+ * their cost however many videos match, as do the tags of a single-tag
+ * search, whose total is maintained. Results are cached by filters, so
+ * paging through a search counts once.
+ * <p>
+ * Keys also carry the version of their country, or of all countries, which a
+ * {@link VideoChange} bumps for the video's countries and for all countries,
+ * like {@link VideoSearchCache} does. Entries under older versions are no
+ * longer looked up and age out.
+ * <p>
+ * Counts alongside a search run on {@code videos.facets.threads} threads of
+ * their own, with room for {@code videos.facets.queue-size} more waiting, so
+ * that a burst of faceted searches takes a bounded number of connections. A
+ * search whose count is refused or takes longer than
+ * {@code videos.facets.timeout} goes without exact facets, counted by
+ * {@code video.facets.degraded}; a count that finishes late still fills the
+ * cache for the next page.
+ */
+@Service
+public class VideoFacetService {
+
+    private final VideoRepository videoRepository;
+
+    private final int scanLimit;
+
+    private final int topTags;
+
+    private final Cache<Stamped, VideoFacets> cache;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /** by country code, empty for all countries */
+    private final Map<String, AtomicLong> countryVersions = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    private final TransactionTemplate readOnly;
+
+    private final long timeoutNanos;
+
+    private final Counter degraded;
+
+    @Autowired
+    public VideoFacetService(VideoRepository videoRepository, PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${videos.facets.scan-limit:10000}") int scanLimit,
+            @Value("${videos.facets.top-tags:10}") int topTags,
+            @Value("${videos.facets.maximum-size:1000}") long maximumSize,
+            @Value("${videos.search-cache.expire-after-write:PT1M}") Duration expireAfterWrite,
+            @Value("${videos.facets.threads:4}") int threads,
+            @Value("${videos.facets.queue-size:16}") int queueSize,
+            @Value("${videos.facets.timeout:PT1S}") Duration timeout) {
+        this.videoRepository = videoRepository;
+        this.scanLimit = scanLimit;
+        this.topTags = topTags;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("facets-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.timeoutNanos = timeout.toNanos();
+        this.degraded = Counter.builder("video.facets.degraded").register(meterRegistry);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "video.facets");
+    }
+
+    /**
+     * Facets of the videos the search matches. Sort, page and cursor of the
+     * search are ignored.
+     */
+    @Transactional(readOnly = true)
+    public VideoFacets facets(VideoSearch search) {
+        if (search.hasKeyword() && search.keywordTerms().isEmpty()) {
+            // nothing searchable in the keyword, the search matches nothing
+            return new VideoFacets(0, true, List.of(), true);
+        }
+        Key filters = Key.of(search);
+        Stamped key = new Stamped(filters, version(filters.countryCode()));
+        VideoFacets facets = cache.getIfPresent(key);
+        if (facets != null) {
+            return facets;
+        }
+        long generation = this.generation.get();
+        facets = count(search, filters);
+        if (generation == this.generation.get()) {
+            cache.put(key, facets);
+            if (generation != this.generation.get()) {
+                cache.invalidate(key);
+            }
+        }
+        return facets;
+    }
+
+    /**
+     * Starts counting the facets of the search, timed by {@code timer}, for
+     * {@link #await} to collect once the page is found.
+     */
+    public CompletableFuture<VideoFacets> start(VideoSearch search, Timer timer) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> timer.record(() -> readOnly.execute(status -> facets(search))), executor);
+        } catch (RejectedExecutionException e) {
+            // as many counts running and waiting as allowed
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Facets counted by {@link #start}, or, if they are refused or not
+     * counted within {@code videos.facets.timeout}, inexact ones: the videos
+     * up to the end of the page found as a lower bound of the total, and no
+     * tags.
+     */
+    public VideoFacets await(CompletableFuture<VideoFacets> counting, VideoSearch search, int found) {
+        VideoFacets facets = null;
+        try {
+            facets = counting.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // left to finish, the cache keeps its result
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        if (facets == null) {
+            degraded.increment();
+            facets = new VideoFacets(search.skip() + found, false, List.of(), false);
+        }
+        return facets;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private VideoFacets count(VideoSearch search, Key key) {
+        if (search.hasKeyword() || key.tagIds().size() > 1) {
+            long total = videoRepository.countMatches(search, scanLimit + 1);
+            List<TagCount> tags = videoRepository.countTagsOfMatches(search, scanLimit, topTags);
+            return new VideoFacets(Math.min(total, scanLimit), total <= scanLimit, tags, total <= scanLimit);
+        }
+        if (key.tagIds().isEmpty()) {
+            return new VideoFacets(videoRepository.countListed(key.countryCode(), null), true,
+                    videoRepository.countListedTags(key.countryCode(), topTags), true);
+        }
+        // the total of a single tag is maintained, the tags it comes with are not
+        long total = videoRepository.countListed(key.countryCode(), key.tagIds().get(0));
+        List<TagCount> tags = videoRepository.countTagsOfMatches(search, scanLimit, topTags);
+        return new VideoFacets(total, true, tags, total <= scanLimit);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    @EventListener
+    public void onVideoChange(VideoChange change) {
+        generation.incrementAndGet();
+        if (change.isEverything()) {
+            cache.invalidateAll();
+            return;
+        }
+        // any change to a video can alter the counts of its countries, tag changes included
+        bump("");
+        if (change.countryCode() != null) {
+            bump(change.countryCode());
+        }
+        if (change.oldCountryCode() != null) {
+            bump(change.oldCountryCode());
+        }
+    }
+
+    private long version(String countryCode) {
+        AtomicLong version = countryVersions.get(countryCode);
+        return version == null ? 0 : version.get();
+    }
+
+    private void bump(String countryCode) {
+        countryVersions.computeIfAbsent(countryCode, any -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * A key along with the version of its country it was cached under.
+     */
+    record Stamped(Key key, long countryVersion) {
+    }
+
+    record Key(String countryCode, List<String> keywordTerms, List<Integer> tagIds, TagMatch tagMatch) {
+
+        static Key of(VideoSearch search) {
+            List<Integer> tagIds = search.tagIds().stream().distinct().sorted().toList();
+            return new Key(
+                    search.hasCountryCode() ? search.countryCode() : "",
+                    search.keywordTerms(),
+                    tagIds,
+                    tagIds.size() > 1 ? search.tagMatch() : TagMatch.ANY);
+        }
+    }
+}
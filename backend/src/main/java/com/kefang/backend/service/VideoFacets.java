@@ -0,0 +1,14 @@
+package com.kefang.backend.service;
+
+import java.util.List;
+
+import com.kefang.backend.db.repository.TagCount;
+
+/**
+ * Number of videos a search matches and the tags most common among them.
+ * When {@code exact} is false the total was counted over only part of the
+ * matches and is a lower bound. When {@code tagsExact} is false the tags were
+ * counted over only part of the matches, or not at all.
+ */
+public record VideoFacets(long total, boolean exact, List<TagCount> tags, boolean tagsExact) {
+}
@@ -0,0 +1,72 @@
+package com.kefang.backend.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kefang.backend.db.repository.AccountRepository;
+import com.kefang.backend.db.repository.NewVideo;
+import com.kefang.backend.db.repository.VideoRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Inserts videos in bulk, committing every {@code videos.ingest.chunk-size}
+ * videos in a transaction of their own. Chunks committed before a failure
+ * stay committed, so the accounts of all the videos are checked before the
+ * first chunk.
+ */
+@Service
+public class VideoIngestService {
+
+    private final VideoRepository videoRepository;
+
+    private final AccountRepository accountRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int chunkSize;
+
+    private final Counter ingested;
+
+    @Autowired
+    public VideoIngestService(VideoRepository videoRepository, AccountRepository accountRepository,
+            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+            @Value("${videos.ingest.chunk-size:1000}") int chunkSize) {
+        this.videoRepository = videoRepository;
+        this.accountRepository = accountRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+        this.ingested = Counter.builder("videos.ingested").register(meterRegistry);
+    }
+
+    /**
+     * @return ids of the inserted videos, in the order given
+     * @throws IllegalArgumentException when an account does not exist, before
+     *                                  anything is inserted
+     */
+    public List<Long> ingest(List<NewVideo> videos) {
+        Set<Long> accountIds = new HashSet<>();
+        for (NewVideo video : videos) {
+            accountIds.add(video.accountId());
+        }
+        if (accountRepository.countByIdIn(accountIds) != accountIds.size()) {
+            throw new IllegalArgumentException("unknown account id");
+        }
+        List<Long> ids = new ArrayList<>(videos.size());
+        for (int from = 0; from < videos.size(); from += chunkSize) {
+            List<NewVideo> chunk = videos.subList(from, Math.min(from + chunkSize, videos.size()));
+            ids.addAll(transactionTemplate.execute(status -> videoRepository.insertAll(chunk)));
+            ingested.increment(chunk.size());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,177 @@
+package com.kefang.backend.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kefang.backend.db.repository.TagMatch;
+import com.kefang.backend.db.repository.VideoSearch;
+import com.kefang.backend.db.repository.VideoSort;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Ids of the videos on recently searched pages.
+ * <p>
+ * Entries are keyed by the normalized search, bounded in number with
+ * W-TinyLFU eviction and expire after {@code videos.search-cache.expire-after-write}.
+ * Keyset pages are not cached.
+ * <p>
+ * Keys also carry the version of their country, or of all countries, and of
+ * each of their tags. A {@link VideoChange} bumps the versions it can affect:
+ * those of the video's countries and of all countries, or that of the tag
+ * for a tag change. Entries under older versions are no longer looked up and
+ * age out, so a change costs no scan of the cache however many arrive.
+ */
+@Service
+public class VideoSearchCache {
+
+    private final Cache<Stamped, List<Long>> cache;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /** by country code, empty for all countries */
+    private final Map<String, AtomicLong> countryVersions = new ConcurrentHashMap<>();
+
+    private final Map<Integer, AtomicLong> tagVersions = new ConcurrentHashMap<>();
+
+    private final Counter invalidations;
+
+    @Autowired
+    public VideoSearchCache(MeterRegistry meterRegistry,
+            @Value("${videos.search-cache.maximum-size:10000}") long maximumSize,
+            @Value("${videos.search-cache.expire-after-write:PT1M}") Duration expireAfterWrite) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "video.search");
+        this.invalidations = Counter.builder("video.search.invalidations").register(meterRegistry);
+    }
+
+    public static boolean isCacheable(VideoSearch search) {
+        return !search.hasCursor();
+    }
+
+    /**
+     * @return the cached ids of the page, or null
+     */
+    public List<Long> get(VideoSearch search) {
+        return cache.getIfPresent(stamp(Key.of(search)));
+    }
+
+    /**
+     * Whether the page is cached, without counting as a hit or miss.
+     */
+    public boolean contains(VideoSearch search) {
+        return cache.asMap().containsKey(stamp(Key.of(search)));
+    }
+
+    /**
+     * Position in the stream of changes, to be taken before running the
+     * search whose result is later passed to {@link #put}.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Caches the result of a search unless a change arrived since
+     * {@code generation} was taken, in which case the result may be stale.
+     */
+    public void put(VideoSearch search, List<Long> ids, long generation) {
+        if (generation != this.generation.get()) {
+            return;
+        }
+        Stamped key = stamp(Key.of(search));
+        cache.put(key, List.copyOf(ids));
+        if (generation != this.generation.get()) {
+            // a change slipped in while putting, it may not have seen the entry
+            cache.invalidate(key);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    @EventListener
+    public void onVideoChange(VideoChange change) {
+        generation.incrementAndGet();
+        invalidations.increment();
+        if (change.isEverything()) {
+            cache.invalidateAll();
+        } else if (change.isTagChange()) {
+            // the tag can only start or stop matching searches for it, in any country
+            bump(tagVersions, change.tagId());
+        } else {
+            bump(countryVersions, "");
+            if (change.countryCode() != null) {
+                bump(countryVersions, change.countryCode());
+            }
+            if (change.oldCountryCode() != null) {
+                bump(countryVersions, change.oldCountryCode());
+            }
+        }
+    }
+
+    private Stamped stamp(Key key) {
+        List<Long> versions = new ArrayList<>(key.tagIds().size());
+        for (Integer tagId : key.tagIds()) {
+            versions.add(version(tagVersions, tagId));
+        }
+        return new Stamped(key, version(countryVersions, key.countryCode()), versions);
+    }
+
+    private static <K> long version(Map<K, AtomicLong> versions, K scope) {
+        AtomicLong version = versions.get(scope);
+        return version == null ? 0 : version.get();
+    }
+
+    private static <K> void bump(Map<K, AtomicLong> versions, K scope) {
+        versions.computeIfAbsent(scope, any -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * A key along with the versions of its country and tags it was cached
+     * under.
+     */
+    record Stamped(Key key, long countryVersion, List<Long> tagVersions) {
+    }
+
+    record Key(
+            String countryCode,
+            List<String> keywordTerms,
+            List<Integer> tagIds,
+            TagMatch tagMatch,
+            VideoSort sort,
+            int pageSize,
+            int skip) {
+
+        static Key of(VideoSearch search) {
+            List<String> terms = search.keywordTerms();
+            return new Key(
+                    search.hasCountryCode() ? search.countryCode() : "",
+                    terms,
+                    search.tagIds().stream().distinct().sorted().toList(),
+                    search.hasTags() ? search.tagMatch() : TagMatch.ANY,
+                    search.sort() == VideoSort.RELEVANCE && terms.isEmpty() ? VideoSort.RECENT : search.sort(),
+                    search.pageSize(),
+                    search.skip());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.kefang.backend.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.db.repository.VideoSearch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Lets identical searches arriving while one of them runs share its result
+ * instead of each running their own, as happens on a cold cache or right
+ * after a popular upload.
+ * <p>
+ * Searches are identical when their {@link VideoSearchCache} keys are, and
+ * they arrived between the same two catalogue changes: a search arriving
+ * after a change starts a run of its own, as the running one may not see the
+ * change. Keyset pages, and pages already cached, which take no query to
+ * answer, are never shared. Waiters get the same list of cards
+ * as the search they waited for, or the same exception. A waiter that waited
+ * {@code videos.search-coalescing.timeout} in vain runs the search on its own.
+ * <p>
+ * Meters: {@code video.search.coalesced} counts the searches answered by
+ * another's run, which is the number of queries saved,
+ * {@code video.search.coalescing.timeouts} the waiters that gave up and
+ * {@code video.search.coalescing.inflight} the runs being waited for.
+ */
+@Service
+public class VideoSearchCoalescer {
+
+    private final Map<Flight, CompletableFuture<List<VideoCard>>> flights = new ConcurrentHashMap<>();
+
+    private final VideoSearchService videoSearchService;
+
+    private final VideoSearchCache searchCache;
+
+    private final long timeoutNanos;
+
+    private final Counter coalesced;
+
+    private final Counter timeouts;
+
+    @Autowired
+    public VideoSearchCoalescer(VideoSearchService videoSearchService, VideoSearchCache searchCache,
+            MeterRegistry meterRegistry,
+            @Value("${videos.search-coalescing.timeout:PT5S}") Duration timeout) {
+        this.videoSearchService = videoSearchService;
+        this.searchCache = searchCache;
+        this.timeoutNanos = timeout.toNanos();
+        this.coalesced = Counter.builder("video.search.coalesced").register(meterRegistry);
+        this.timeouts = Counter.builder("video.search.coalescing.timeouts").register(meterRegistry);
+        Gauge.builder("video.search.coalescing.inflight", flights, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Same as {@link VideoSearchService#search}, run outside of any
+     * transaction so that waiters hold no connection.
+     */
+    public List<VideoCard> search(VideoSearch search) {
+        if (!VideoSearchCache.isCacheable(search) || searchCache.contains(search)) {
+            return videoSearchService.search(search);
+        }
+        Flight flight = new Flight(VideoSearchCache.Key.of(search), searchCache.generation());
+        CompletableFuture<List<VideoCard>> running = new CompletableFuture<>();
+        CompletableFuture<List<VideoCard>> joined = flights.putIfAbsent(flight, running);
+        if (joined != null) {
+            return await(joined, search);
+        }
+        try {
+            List<VideoCard> videos = videoSearchService.search(search);
+            running.complete(videos);
+            return videos;
+        } catch (RuntimeException | Error e) {
+            running.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(flight, running);
+        }
+    }
+
+    private List<VideoCard> await(CompletableFuture<List<VideoCard>> joined, VideoSearch search) {
+        try {
+            List<VideoCard> videos = joined.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            coalesced.increment();
+            return videos;
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            return videoSearchService.search(search);
+        } catch (ExecutionException e) {
+            coalesced.increment();
+            throw e.getCause() instanceof RuntimeException cause ? cause : new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    private record Flight(VideoSearchCache.Key key, long generation) {
+    }
+}
@@ -0,0 +1,102 @@
+package com.kefang.backend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.kefang.backend.db.repository.VideoSearch;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the /api/videos pipeline, tagged with which of the country,
+ * keyword and tag filters a search had:
+ * <ul>
+ * <li>{@code video.search.stage}, a timer per {@link Stage}</li>
+ * <li>{@code video.search.rows}, videos returned per request</li>
+ * <li>{@code video.search.round.trips}, SQL statements per request</li>
+ * </ul>
+ * All meters are registered up front, so recording only reads the clock.
+ * Timer percentile histograms are off unless enabled with
+ * {@code management.metrics.distribution.percentiles-histogram.video.search.stage=true}.
+ */
+@Component
+public class VideoSearchMetrics {
+
+    public enum Stage {
+        /** resolving tag words to ids */
+        TAGS,
+        /** loading a page of cached ids */
+        CACHE,
+        /** the search query */
+        QUERY,
+        /** attaching author profiles */
+        PROFILES,
+        /** counting matches and their tags, alongside the other stages */
+        FACETS,
+        /** writing the JSON response */
+        SERIALIZE
+    }
+
+    private static final int COUNTRY = 1;
+
+    private static final int KEYWORD = 2;
+
+    private static final int TAGS = 4;
+
+    private final Timer[][] timers = new Timer[Stage.values().length][8];
+
+    private final DistributionSummary[] rows = new DistributionSummary[8];
+
+    private final DistributionSummary[] roundTrips = new DistributionSummary[8];
+
+    @Autowired
+    public VideoSearchMetrics(MeterRegistry meterRegistry) {
+        for (int filters = 0; filters < 8; ++filters) {
+            Tags tags = Tags.of("country", Boolean.toString((filters & COUNTRY) != 0),
+                    "keyword", Boolean.toString((filters & KEYWORD) != 0),
+                    "tags", Boolean.toString((filters & TAGS) != 0));
+            for (Stage stage : Stage.values()) {
+                timers[stage.ordinal()][filters] = Timer.builder("video.search.stage")
+                        .tags(tags)
+                        .tag("stage", stage.name().toLowerCase())
+                        .register(meterRegistry);
+            }
+            rows[filters] = DistributionSummary.builder("video.search.rows")
+                    .tags(tags)
+                    .serviceLevelObjectives(1, 5, 10, 20, 50, 100)
+                    .register(meterRegistry);
+            roundTrips[filters] = DistributionSummary.builder("video.search.round.trips")
+                    .tags(tags)
+                    .serviceLevelObjectives(1, 2, 3, 4, 5, 10, 20)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Encodes which filters a request has, for the other methods.
+     */
+    public static int filters(String countryCode, String keyword, boolean hasTags) {
+        return (countryCode != null && !countryCode.isEmpty() ? COUNTRY : 0)
+                | (keyword != null && !keyword.isEmpty() ? KEYWORD : 0)
+                | (hasTags ? TAGS : 0);
+    }
+
+    public static int filters(VideoSearch search) {
+        return filters(search.countryCode(), search.keyword(), search.hasTags());
+    }
+
+    public Timer timer(Stage stage, int filters) {
+        return timers[stage.ordinal()][filters];
+    }
+
+    public void recordRows(int filters, int count) {
+        rows[filters].record(count);
+    }
+
+    public void recordRoundTrips(int filters, long count) {
+        roundTrips[filters].record(count);
+    }
+}
@@ -0,0 +1,192 @@
+package com.kefang.backend.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kefang.backend.db.repository.ProfileCard;
+import com.kefang.backend.db.repository.ProfileRepository;
+import com.kefang.backend.db.repository.VideoCard;
+import com.kefang.backend.db.repository.VideoRepository;
+import com.kefang.backend.db.repository.VideoSearch;
+import com.kefang.backend.db.repository.VideoSort;
+import com.kefang.backend.db.repository.VideoTags;
+import com.kefang.backend.service.VideoSearchMetrics.Stage;
+
+/**
+ * Runs video searches through the {@link VideoSearchCache}, fetches videos by
+ * id or finds {@link SimilarVideos}, and attaches the author profile of every
+ * video found.
+ */
+@Service
+public class VideoSearchService {
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    @Autowired
+    private ProfileRepository profileRepository;
+
+    @Autowired
+    private VideoSearchCache searchCache;
+
+    @Autowired
+    private VideoSearchMetrics metrics;
+
+    @Autowired
+    private SimilarVideos similarVideos;
+
+    @Autowired
+    private SearchConcurrencyLimiter searchLimiter;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Transactional(readOnly = true)
+    public List<VideoCard> search(VideoSearch search) {
+        int filters = VideoSearchMetrics.filters(search);
+        List<VideoCard> videos = find(search, filters);
+        return metrics.timer(Stage.PROFILES, filters).record(() -> attachProfiles(videos));
+    }
+
+    /**
+     * Hands every video the search matches to {@code sink}, newest first, in
+     * chunks of {@code fetchSize} with their profiles attached. Each chunk is
+     * a keyset page read in a short read-only transaction of its own, and its
+     * connection is back in the pool before the chunk is handed over, so a slow
+     * sink holds neither a connection nor more than one chunk in memory. Sort,
+     * page and cursor of the search are ignored.
+     */
+    public void export(VideoSearch search, int fetchSize, ExportSink sink) throws IOException {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        VideoSearch page = search.sortedBy(VideoSort.RECENT).page(fetchSize, 0);
+        while (true) {
+            VideoSearch chunkSearch = page;
+            List<VideoCard> chunk = readOnly.execute(
+                    status -> attachProfiles(videoRepository.search(chunkSearch)));
+            if (chunk.isEmpty()) {
+                return;
+            }
+            sink.write(chunk);
+            if (chunk.size() < fetchSize) {
+                return;
+            }
+            VideoCard last = chunk.get(chunk.size() - 1);
+            page = page.after(last.createdAt().toInstant(), last.id());
+        }
+    }
+
+    /**
+     * Loads the videos with the given ids, their author profiles and tag words
+     * in three queries, however many ids are given. Repeated ids are fetched
+     * once.
+     */
+    @Transactional(readOnly = true)
+    public VideoBatch findByIds(List<Long> ids) {
+        List<Long> distinct = List.copyOf(new LinkedHashSet<>(ids));
+        List<VideoCard> videos = attachProfiles(findAllInOrder(distinct));
+        Set<Long> found = new HashSet<>();
+        for (VideoCard video : videos) {
+            found.add(video.id());
+        }
+        List<Long> missing = new ArrayList<>();
+        for (Long id : distinct) {
+            if (!found.contains(id)) {
+                missing.add(id);
+            }
+        }
+        return new VideoBatch(videos, videoRepository.findTagWordsByVideoIdIn(found), missing);
+    }
+
+    /**
+     * Up to {@code limit} listed videos similar to the given one by their
+     * tags, the most similar first, in the country unless the country code is
+     * empty, with their profiles attached.
+     *
+     * @return null when the video does not exist or is not listed
+     */
+    @Transactional(readOnly = true)
+    public List<VideoCard> findSimilar(long videoId, String countryCode, int limit) {
+        VideoTags video = videoRepository.findListedTags(videoId);
+        if (video == null) {
+            return null;
+        }
+        return attachProfiles(findAllInOrder(similarVideos.similar(video, countryCode, limit)));
+    }
+
+    @FunctionalInterface
+    public interface ExportSink {
+
+        void write(List<VideoCard> chunk) throws IOException;
+    }
+
+    private List<VideoCard> find(VideoSearch search, int filters) {
+        if (!VideoSearchCache.isCacheable(search)) {
+            searchLimiter.queried();
+            return metrics.timer(Stage.QUERY, filters).record(() -> videoRepository.search(search));
+        }
+        List<Long> ids = searchCache.get(search);
+        if (ids != null) {
+            return metrics.timer(Stage.CACHE, filters).record(() -> findAllInOrder(ids));
+        }
+        long generation = searchCache.generation();
+        searchLimiter.queried();
+        List<VideoCard> videos = metrics.timer(Stage.QUERY, filters).record(() -> videoRepository.search(search));
+        searchCache.put(search, videos.stream().map(VideoCard::id).toList(), generation);
+        return videos;
+    }
+
+    /**
+     * Loads videos by primary key in one query, keeping the given order and
+     * skipping the ones that no longer exist.
+     */
+    private List<VideoCard> findAllInOrder(List<Long> ids) {
+        Map<Long, VideoCard> found = new HashMap<>();
+        for (VideoCard video : videoRepository.findCardsByIdIn(ids)) {
+            found.put(video.id(), video);
+        }
+        List<VideoCard> videos = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            VideoCard video = found.get(id);
+            if (video != null) {
+                videos.add(video);
+            }
+        }
+        return videos;
+    }
+
+    /**
+     * Attaches the newest profile of each video's author, looking up all
+     * distinct authors on the page with one query.
+     */
+    private List<VideoCard> attachProfiles(List<VideoCard> videos) {
+        if (videos.isEmpty()) {
+            return videos;
+        }
+        Set<Long> accountIds = new HashSet<>();
+        for (var video : videos) {
+            accountIds.add(video.accountId());
+        }
+        Map<Long, ProfileCard> profiles = new HashMap<>();
+        for (var profile : profileRepository.findNewestCardsByAccountIdIn(accountIds)) {
+            profiles.put(profile.accountId(), profile);
+        }
+        List<VideoCard> withProfiles = new ArrayList<>(videos.size());
+        for (var video : videos) {
+            withProfiles.add(video.withProfile(profiles.get(video.accountId())));
+        }
+        return withProfiles;
+    }
+}
@@ -0,0 +1,506 @@
+package com.kefang.backend.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.kefang.backend.db.repository.VideoTags;
+
+/**
+ * Inverted index from tag id to the ids of the listed videos carrying the tag,
+ * from which {@link #similar} scores videos by the tags they share.
+ * <p>
+ * The ids of a tag are kept sorted, in blocks of up to {@value #BLOCK_SIZE}:
+ * the first id of a block as an int, the others as variable-length gaps to
+ * the id before, so that ids close to each other take a byte each. Adding or
+ * removing an id re-encodes one block into a new posting list that shares
+ * the other blocks, which then replaces the old one in a concurrent map.
+ * Besides, every indexed video takes an int, holding its country and its
+ * number of tags, in pages of {@value #PAGE_SIZE} ints indexed by video id.
+ * Pages are allocated only for ranges of ids holding indexed videos, so that
+ * a gap in the ids costs a reference per page rather than an int per id.
+ * <p>
+ * Written by one thread at a time and read by any number without locking.
+ * Readers may see a write in part, such as a video's new country before its
+ * new tags.
+ */
+public class VideoTagIndex {
+
+    static final int BLOCK_SIZE = 128;
+
+    private static final int END = Integer.MAX_VALUE;
+
+    private static final int MAXIMUM_TAGS = 0xffff;
+
+    private static final int PAGE_BITS = 12;
+
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final Comparator<Candidate> WORST_FIRST = Comparator.comparingDouble(Candidate::score)
+            .thenComparingInt(Candidate::videoId);
+
+    private final Map<Integer, Postings> postings = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> countries = new ConcurrentHashMap<>();
+
+    /** by video id: country number in the upper, number of tags in the lower half, 0 when not indexed */
+    private volatile int[][] pages = new int[0][];
+
+    private volatile int size;
+
+    /**
+     * Builds the index from every listed video, in ascending order of id.
+     */
+    public static VideoTagIndex build(Iterator<VideoTags> videos) {
+        VideoTagIndex index = new VideoTagIndex();
+        Map<Integer, Postings.Builder> builders = new HashMap<>();
+        int previous = 0;
+        while (videos.hasNext()) {
+            VideoTags video = videos.next();
+            int videoId = Math.toIntExact(video.videoId());
+            if (videoId <= previous) {
+                throw new IllegalArgumentException("videos out of order at " + videoId);
+            }
+            previous = videoId;
+            index.setVideo(videoId, video.countryCode(), video.tagIds().length);
+            for (int tagId : video.tagIds()) {
+                builders.computeIfAbsent(tagId, id -> new Postings.Builder()).add(videoId);
+            }
+        }
+        builders.forEach((tagId, builder) -> index.postings.put(tagId, builder.build()));
+        return index;
+    }
+
+    /**
+     * Indexes the video, or updates its country and adds the tags it gained.
+     * Tags it lost are to be removed with {@link #untag}.
+     */
+    public void put(VideoTags video) {
+        int videoId = Math.toIntExact(video.videoId());
+        setVideo(videoId, video.countryCode(), video.tagIds().length);
+        for (int tagId : video.tagIds()) {
+            Postings tagged = postings.getOrDefault(tagId, Postings.EMPTY);
+            Postings added = tagged.with(videoId);
+            if (added != tagged) {
+                postings.put(tagId, added);
+            }
+        }
+    }
+
+    /**
+     * Drops the video from results. Its ids stay in the postings of its tags
+     * until untagged, or until the index is built again.
+     */
+    public void remove(long videoId) {
+        if (videoId > Integer.MAX_VALUE) {
+            return;
+        }
+        int[] page = page(pages, (int) videoId);
+        int at = (int) videoId & PAGE_SIZE - 1;
+        if (page != null && page[at] != 0) {
+            page[at] = 0;
+            --size;
+        }
+    }
+
+    public void untag(long videoId, int tagId) {
+        Postings tagged = postings.get(tagId);
+        if (tagged == null) {
+            return;
+        }
+        Postings removed = tagged.without(Math.toIntExact(videoId));
+        if (removed.size() == 0) {
+            postings.remove(tagId);
+        } else if (removed != tagged) {
+            postings.put(tagId, removed);
+        }
+    }
+
+    /**
+     * Up to {@code limit} indexed videos sharing tags with the given one, in
+     * the country unless the country code is empty, the most similar first.
+     * <p>
+     * Shared tags weigh their inverse document frequency, {@code
+     * ln(1 + videos / videos with the tag)}, so that a rare tag in common
+     * counts for more than a tag on every other video. Their sum is divided
+     * by the number of distinct tags of both videos, as in the Jaccard index.
+     * Ties go to the newer video. Takes time in proportion to the number of
+     * videos carrying any of the tags.
+     */
+    public List<Long> similar(VideoTags video, String countryCode, int limit) {
+        int country = 0;
+        if (!countryCode.isEmpty()) {
+            Integer known = countries.get(countryCode);
+            if (known == null) {
+                return new ArrayList<>();
+            }
+            country = known;
+        }
+        int[] tagIds = video.tagIds();
+        Postings.Cursor[] cursors = new Postings.Cursor[tagIds.length];
+        int[] current = new int[tagIds.length];
+        double[] weights = new double[tagIds.length];
+        int size = Math.max(this.size, 1);
+        for (int i = 0; i < tagIds.length; ++i) {
+            Postings tagged = postings.getOrDefault(tagIds[i], Postings.EMPTY);
+            cursors[i] = tagged.cursor();
+            current[i] = cursors[i].next();
+            weights[i] = Math.log(1 + (double) size / Math.max(tagged.size(), 1));
+        }
+
+        int[][] pages = this.pages;
+        PriorityQueue<Candidate> best = new PriorityQueue<>(WORST_FIRST);
+        while (true) {
+            // the smallest id under any cursor, and the tags carrying it
+            int videoId = END;
+            for (int id : current) {
+                videoId = Math.min(videoId, id);
+            }
+            if (videoId == END) {
+                break;
+            }
+            int shared = 0;
+            double weight = 0;
+            for (int i = 0; i < current.length; ++i) {
+                if (current[i] == videoId) {
+                    ++shared;
+                    weight += weights[i];
+                    current[i] = cursors[i].next();
+                }
+            }
+            int[] page = page(pages, videoId);
+            int indexed = page == null ? 0 : page[videoId & PAGE_SIZE - 1];
+            if (videoId == video.videoId() || indexed == 0 || country != 0 && indexed >>> 16 != country) {
+                continue;
+            }
+            double score = weight / Math.max(shared, tagIds.length + (indexed & MAXIMUM_TAGS) - shared);
+            if (best.size() == limit) {
+                Candidate worst = best.peek();
+                if (worst == null || score < worst.score() || score == worst.score() && videoId < worst.videoId()) {
+                    continue;
+                }
+                best.poll();
+            }
+            best.add(new Candidate(score, videoId));
+        }
+
+        Long[] similar = new Long[best.size()];
+        for (int i = similar.length - 1; i >= 0; --i) {
+            similar[i] = (long) best.poll().videoId();
+        }
+        return new ArrayList<>(Arrays.asList(similar));
+    }
+
+    /**
+     * Number of videos indexed.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of tags carried by any indexed video.
+     */
+    public int tags() {
+        return postings.size();
+    }
+
+    /**
+     * Approximate heap taken by the index, assuming compressed object
+     * pointers.
+     */
+    public long estimatedBytes() {
+        int[][] pages = this.pages;
+        long bytes = array(pages.length * 4L) + countries.size() * 64L;
+        for (int[] page : pages) {
+            if (page != null) {
+                bytes += array(PAGE_SIZE * 4L);
+            }
+        }
+        for (Postings tagged : postings.values()) {
+            // map node and boxed key
+            bytes += 48 + tagged.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    private void setVideo(int videoId, String countryCode, int tags) {
+        int country = countries.computeIfAbsent(countryCode == null ? "" : countryCode, code -> countries.size() + 1);
+        int[][] pages = this.pages;
+        int index = videoId >>> PAGE_BITS;
+        if (index >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(index + 1, pages.length + (pages.length >> 1)));
+        }
+        if (pages[index] == null) {
+            pages[index] = new int[PAGE_SIZE];
+        }
+        int at = videoId & PAGE_SIZE - 1;
+        if (pages[index][at] == 0) {
+            ++size;
+        }
+        pages[index][at] = country << 16 | Math.min(tags, MAXIMUM_TAGS);
+        this.pages = pages;
+    }
+
+    private static int[] page(int[][] pages, int videoId) {
+        int index = videoId >>> PAGE_BITS;
+        return index < pages.length ? pages[index] : null;
+    }
+
+    private static long array(long bytes) {
+        return 16 + (bytes + 7 & ~7);
+    }
+
+    private record Candidate(double score, int videoId) {
+    }
+
+    /**
+     * Sorted ids of the videos carrying one tag, in blocks. Immutable.
+     */
+    static final class Postings {
+
+        static final Postings EMPTY = new Postings(new int[0], new int[0], new byte[0][], 0);
+
+        /** first id of each block */
+        private final int[] firsts;
+
+        /** number of ids in each block */
+        private final int[] counts;
+
+        /** gaps between the ids of each block after the first, as varints */
+        private final byte[][] gaps;
+
+        private final int size;
+
+        private Postings(int[] firsts, int[] counts, byte[][] gaps, int size) {
+            this.firsts = firsts;
+            this.counts = counts;
+            this.gaps = gaps;
+            this.size = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Postings with(int videoId) {
+            if (firsts.length == 0) {
+                return new Postings(new int[] { videoId }, new int[] { 1 }, new byte[][] { new byte[0] }, 1);
+            }
+            int block = blockOf(videoId);
+            int[] ids = decode(block);
+            int at = Arrays.binarySearch(ids, videoId);
+            if (at >= 0) {
+                return this;
+            }
+            at = -at - 1;
+            int[] added = new int[ids.length + 1];
+            System.arraycopy(ids, 0, added, 0, at);
+            added[at] = videoId;
+            System.arraycopy(ids, at, added, at + 1, ids.length - at);
+            return replace(block, added, size + 1);
+        }
+
+        Postings without(int videoId) {
+            if (firsts.length == 0) {
+                return this;
+            }
+            int block = blockOf(videoId);
+            int[] ids = decode(block);
+            int at = Arrays.binarySearch(ids, videoId);
+            if (at < 0) {
+                return this;
+            }
+            int[] removed = new int[ids.length - 1];
+            System.arraycopy(ids, 0, removed, 0, at);
+            System.arraycopy(ids, at + 1, removed, at, removed.length - at);
+            return replace(block, removed, size - 1);
+        }
+
+        Cursor cursor() {
+            return new Cursor();
+        }
+
+        long estimatedBytes() {
+            long bytes = 24 + array(firsts.length * 4L) * 2 + array(gaps.length * 4L);
+            for (byte[] block : gaps) {
+                bytes += array(block.length);
+            }
+            return bytes;
+        }
+
+        /**
+         * The last block starting at or before the id, or the first block.
+         */
+        private int blockOf(int videoId) {
+            int at = Arrays.binarySearch(firsts, videoId);
+            return at >= 0 ? at : Math.max(0, -at - 2);
+        }
+
+        private int[] decode(int block) {
+            int[] ids = new int[counts[block]];
+            ids[0] = firsts[block];
+            byte[] encoded = gaps[block];
+            int position = 0;
+            for (int i = 1; i < ids.length; ++i) {
+                int gap = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte b = encoded[position++];
+                    gap |= (b & 0x7f) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                ids[i] = ids[i - 1] + gap;
+            }
+            return ids;
+        }
+
+        /**
+         * Replaces the block by blocks of the given ids, none when there are
+         * none, two halves when they overflow a block.
+         */
+        private Postings replace(int block, int[] ids, int size) {
+            int parts = (ids.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int blocks = firsts.length - 1 + parts;
+            int[] firsts = new int[blocks];
+            int[] counts = new int[blocks];
+            byte[][] gaps = new byte[blocks][];
+            System.arraycopy(this.firsts, 0, firsts, 0, block);
+            System.arraycopy(this.counts, 0, counts, 0, block);
+            System.arraycopy(this.gaps, 0, gaps, 0, block);
+            int from = 0;
+            for (int part = 0; part < parts; ++part) {
+                int to = ids.length * (part + 1) / parts;
+                firsts[block + part] = ids[from];
+                counts[block + part] = to - from;
+                gaps[block + part] = encode(ids, from, to);
+                from = to;
+            }
+            int after = this.firsts.length - block - 1;
+            System.arraycopy(this.firsts, block + 1, firsts, block + parts, after);
+            System.arraycopy(this.counts, block + 1, counts, block + parts, after);
+            System.arraycopy(this.gaps, block + 1, gaps, block + parts, after);
+            return new Postings(firsts, counts, gaps, size);
+        }
+
+        private static byte[] encode(int[] ids, int from, int to) {
+            byte[] encoded = new byte[(to - from) * 5];
+            int length = 0;
+            for (int i = from + 1; i < to; ++i) {
+                length = writeGap(encoded, length, ids[i] - ids[i - 1]);
+            }
+            return Arrays.copyOf(encoded, length);
+        }
+
+        private static int writeGap(byte[] encoded, int position, int gap) {
+            while ((gap & ~0x7f) != 0) {
+                encoded[position++] = (byte) (gap & 0x7f | 0x80);
+                gap >>>= 7;
+            }
+            encoded[position++] = (byte) gap;
+            return position;
+        }
+
+        /**
+         * Walks the ids in ascending order.
+         */
+        final class Cursor {
+
+            private int block = -1;
+
+            private int remaining;
+
+            private int position;
+
+            private int last;
+
+            /**
+             * @return the next id, or {@code END} past the last
+             */
+            int next() {
+                if (remaining == 0) {
+                    if (++block >= firsts.length) {
+                        return END;
+                    }
+                    remaining = counts[block] - 1;
+                    position = 0;
+                    return last = firsts[block];
+                }
+                --remaining;
+                byte[] encoded = gaps[block];
+                int gap = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte b = encoded[position++];
+                    gap |= (b & 0x7f) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                return last += gap;
+            }
+        }
+
+        /**
+         * Appends ids in ascending order, filling every block.
+         */
+        static final class Builder {
+
+            private int[] firsts = new int[1];
+
+            private int[] counts = new int[1];
+
+            private byte[][] gaps = new byte[1][];
+
+            private int blocks;
+
+            private byte[] block = new byte[BLOCK_SIZE];
+
+            private int length;
+
+            private int last;
+
+            private int size;
+
+            void add(int videoId) {
+                if (blocks == 0 || counts[blocks - 1] == BLOCK_SIZE) {
+                    close();
+                    if (blocks == firsts.length) {
+                        firsts = Arrays.copyOf(firsts, blocks * 2);
+                        counts = Arrays.copyOf(counts, blocks * 2);
+                        gaps = Arrays.copyOf(gaps, blocks * 2);
+                    }
+                    firsts[blocks] = videoId;
+                    counts[blocks++] = 1;
+                } else {
+                    if (length + 5 > block.length) {
+                        block = Arrays.copyOf(block, block.length * 2);
+                    }
+                    length = writeGap(block, length, videoId - last);
+                    ++counts[blocks - 1];
+                }
+                last = videoId;
+                ++size;
+            }
+
+            Postings build() {
+                close();
+                return new Postings(Arrays.copyOf(firsts, blocks), Arrays.copyOf(counts, blocks),
+                        Arrays.copyOf(gaps, blocks), size);
+            }
+
+            private void close() {
+                if (blocks > 0 && gaps[blocks - 1] == null) {
+                    gaps[blocks - 1] = Arrays.copyOf(block, length);
+                    length = 0;
+                }
+            }
+        }
+    }
+}
@@ -85,19 +85,27 @@ create table if not exists video (
     upload_url text,
     thumbnail_url text,
     updated_at TIMESTAMPTZ,
-    created_at TIMESTAMPTZ not null default now()
+    created_at TIMESTAMPTZ not null default now(),
+    search_vector tsvector generated always as (
+        setweight(to_tsvector('english', coalesce(title, '')), 'A') || setweight(to_tsvector('english', coalesce(description, '')), 'B')
+    ) stored
 );
 
 create index if not exists idx_video_account_id on video using btree (account_id);
 
 create index if not exists idx_video_country on video using btree (country_code);
 
-create index if not exists idx_video_title_description on video using gin (
-    to_tsvector(
-        'english',
-        coalesce(title, '') || ' ' || coalesce(description, '')
-    )
-);
+create index if not exists idx_video_created_at_id on video using btree (created_at desc, id desc)
+where
+    upload_url is not null
+    and thumbnail_url is not null;
+
+create index if not exists idx_video_country_created_at_id on video using btree (country_code, created_at desc, id desc)
+where
+    upload_url is not null
+    and thumbnail_url is not null;
+
+create index if not exists idx_video_search_vector on video using gin (search_vector);
 
 create table if not exists video_tag (
     video_id int not null,
@@ -108,6 +116,156 @@ create table if not exists video_tag (
     foreign key (tag_id) REFERENCES tag (id) on delete cascade
 );
 
+create index if not exists idx_video_tag_tag_id_video_id on video_tag using btree (tag_id, video_id);
+
+-- announce committed changes to videos and their tags on the 'video_change'
+-- channel so that backend caches can drop exactly the entries they affect
+create or replace function notify_video_change() returns trigger as $$
+begin
+    if tg_op = 'TRUNCATE' then
+        perform pg_notify('video_change', json_build_object('truncated', true)::text);
+        return null;
+    end if;
+    if tg_table_name = 'video' then
+        perform pg_notify('video_change', json_build_object(
+            'videoId', coalesce(new.id, old.id),
+            'countryCode', coalesce(new.country_code, old.country_code),
+            'oldCountryCode', case when tg_op = 'UPDATE' then old.country_code end
+        )::text);
+    else
+        perform pg_notify('video_change', json_build_object(
+            'videoId', coalesce(new.video_id, old.video_id),
+            'tagId', coalesce(new.tag_id, old.tag_id),
+            'countryCode', (select v.country_code from video v where v.id = coalesce(new.video_id, old.video_id))
+        )::text);
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create or replace trigger video_change_notify
+after insert or update or delete on video
+for each row execute function notify_video_change();
+
+create or replace trigger video_truncate_notify
+after truncate on video
+for each statement execute function notify_video_change();
+
+create or replace trigger video_tag_change_notify
+after insert or update or delete on video_tag
+for each row execute function notify_video_change();
+
+-- search results embed author profiles, so profile changes are announced on
+-- the 'video_change' channel too
+create or replace function notify_profile_change() returns trigger as $$
+begin
+    perform pg_notify('video_change', json_build_object(
+        'profileAccountId', coalesce(new.account_id, old.account_id)
+    )::text);
+    return null;
+end;
+$$ language plpgsql;
+
+create or replace trigger profile_change_notify
+after insert or update or delete on profile
+for each row execute function notify_profile_change();
+
+-- number of listed videos per country, in total (tag_id 0) and per tag, kept
+-- up to date by triggers so that search facets need not count matching rows;
+-- videos without a country are counted under ''
+create table if not exists video_count (
+    country_code text not null,
+    tag_id int not null,
+    videos int not null,
+    primary key (country_code, tag_id)
+);
+
+create or replace function count_video(video_id int, country_code text, delta int) returns void as $$
+begin
+    insert into video_count (country_code, tag_id, videos)
+    select coalesce(count_video.country_code, ''), t.tag_id, delta
+    from (select 0 as tag_id union all select vt.tag_id from video_tag vt where vt.video_id = count_video.video_id) t
+    on conflict on constraint video_count_pkey do update set videos = video_count.videos + excluded.videos;
+end;
+$$ language plpgsql;
+
+-- runs before deletes, while the tags of the video still exist: they are
+-- deleted by the cascade afterwards, when the video no longer counts
+create or replace function maintain_video_count() returns trigger as $$
+declare
+    was_listed boolean := tg_op <> 'INSERT' and old.upload_url is not null and old.thumbnail_url is not null;
+    is_listed boolean := tg_op <> 'DELETE' and new.upload_url is not null and new.thumbnail_url is not null;
+begin
+    if tg_op = 'UPDATE' and was_listed = is_listed and old.country_code is not distinct from new.country_code then
+        return new;
+    end if;
+    if was_listed then
+        perform count_video(old.id, old.country_code, -1);
+    end if;
+    if is_listed then
+        perform count_video(new.id, new.country_code, 1);
+    end if;
+    if tg_op = 'DELETE' then
+        return old;
+    end if;
+    return new;
+end;
+$$ language plpgsql;
+
+create or replace function maintain_video_tag_count() returns trigger as $$
+begin
+    if tg_op = 'TRUNCATE' then
+        delete from video_count where tag_id <> 0 or tg_table_name = 'video';
+        return null;
+    end if;
+    -- locks the video so that a concurrent listing, unlisting or move of it
+    -- and this tag change each see the other
+    perform 1 from video v where v.id in (old.video_id, new.video_id) order by v.id for share;
+    if tg_op <> 'INSERT' then
+        update video_count c set videos = c.videos - 1
+        from video v
+        where v.id = old.video_id and v.upload_url is not null and v.thumbnail_url is not null
+            and c.country_code = coalesce(v.country_code, '') and c.tag_id = old.tag_id;
+    end if;
+    if tg_op <> 'DELETE' then
+        insert into video_count (country_code, tag_id, videos)
+        select coalesce(v.country_code, ''), new.tag_id, 1
+        from video v
+        where v.id = new.video_id and v.upload_url is not null and v.thumbnail_url is not null
+        on conflict on constraint video_count_pkey do update set videos = video_count.videos + 1;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create or replace trigger video_count_maintain
+before insert or update or delete on video
+for each row execute function maintain_video_count();
+
+create or replace trigger video_count_truncate
+after truncate on video
+for each statement execute function maintain_video_tag_count();
+
+create or replace trigger video_tag_count_maintain
+after insert or update or delete on video_tag
+for each row execute function maintain_video_tag_count();
+
+create or replace trigger video_tag_count_truncate
+after truncate on video_tag
+for each statement execute function maintain_video_tag_count();
+
+insert into video_count (country_code, tag_id, videos)
+select coalesce(v.country_code, ''), 0, count(*)
+from video v
+where v.upload_url is not null and v.thumbnail_url is not null
+group by 1
+union all
+select coalesce(v.country_code, ''), vt.tag_id, count(*)
+from video v join video_tag vt on vt.video_id = v.id
+where v.upload_url is not null and v.thumbnail_url is not null
+group by 1, 2
+on conflict do nothing;
+
 CREATE TABLE if not exists countries (
     id SERIAL PRIMARY KEY,
     country_code VARCHAR(2) NOT NULL UNIQUE,
@@ -148,4 +306,79 @@ create index if not exists idx_comments_account_id on comments using btree (acco
 
 create index if not exists idx_comments_video_id on comments using btree (video_id);
 
-create index if not exists idx_comments_comment_id on comments using btree (comment_id);
\ No newline at end of file
+create index if not exists idx_comments_comment_id on comments using btree (comment_id);
+create or replace function popularity_score(likes int, saves int, comments int) returns int as $$
+    select likes + 2 * saves + 3 * comments
+$$ language sql immutable;
+
+create or replace function trending_score(popularity int, created_at timestamptz) returns double precision as $$
+    select log(2, 1 + popularity) + extract(epoch from created_at) / 86400
+$$ language sql immutable;
+
+create table if not exists video_engagement (
+    video_id int primary key,
+    created_at timestamptz not null,
+    likes int not null default 0,
+    saves int not null default 0,
+    comments int not null default 0,
+    popularity int generated always as (popularity_score(likes, saves, comments)) stored,
+    trending double precision generated always as (trending_score(popularity_score(likes, saves, comments), created_at)) stored,
+    foreign key (video_id) references video (id) on delete cascade
+);
+
+create index if not exists idx_video_engagement_popularity on video_engagement using btree (popularity desc, video_id desc);
+
+create index if not exists idx_video_engagement_trending on video_engagement using btree (trending desc, video_id desc);
+
+create or replace function create_video_engagement() returns trigger as $$
+begin
+    insert into video_engagement (video_id, created_at)
+    select i.id, i.created_at from inserted i;
+    return null;
+end;
+$$ language plpgsql;
+
+create or replace function count_engagement() returns trigger as $$
+declare
+    delta int := case when tg_op = 'INSERT' then 1 else -1 end;
+    video int := case when tg_op = 'INSERT' then new.video_id else old.video_id end;
+begin
+    if video is null then
+        -- a reply to a comment
+        return null;
+    end if;
+    if tg_table_name = 'likes' then
+        update video_engagement set likes = likes + delta where video_id = video;
+    elsif tg_table_name = 'saves' then
+        update video_engagement set saves = saves + delta where video_id = video;
+    else
+        update video_engagement set comments = comments + delta where video_id = video;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create or replace trigger video_engagement_create
+after insert on video
+referencing new table as inserted
+for each statement execute function create_video_engagement();
+
+create or replace trigger likes_engagement_count
+after insert or delete on likes
+for each row execute function count_engagement();
+
+create or replace trigger saves_engagement_count
+after insert or delete on saves
+for each row execute function count_engagement();
+
+create or replace trigger comments_engagement_count
+after insert or delete on comments
+for each row execute function count_engagement();
+
+insert into video_engagement (video_id, created_at, likes, saves, comments)
+select v.id, v.created_at,
+    (select count(*) from likes l where l.video_id = v.id),
+    (select count(*) from saves s where s.video_id = v.id),
+    (select count(*) from comments c where c.video_id = v.id)
+from video v
+on conflict do nothing;
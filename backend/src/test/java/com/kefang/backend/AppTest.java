@@ -1,28 +1,95 @@
 package com.kefang.backend;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.ApplicationEventMulticaster;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import org.hibernate.SessionFactory;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.hibernate.stat.Statistics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import com.kefang.backend.controller.VideoCardJsonModule;
+import com.kefang.backend.controller.VideoController;
 import com.kefang.backend.db.entity.Account;
 import com.kefang.backend.db.entity.Country;
 import com.kefang.backend.db.entity.Tag;
 import com.kefang.backend.db.entity.Video;
 import com.kefang.backend.db.repository.AccountRepository;
 import com.kefang.backend.db.repository.CountryRepository;
+import com.kefang.backend.db.repository.ProfileCard;
+import com.kefang.backend.db.repository.ProfileRepository;
+import com.kefang.backend.db.repository.Reaction;
+import com.kefang.backend.db.repository.ReactionType;
+import com.kefang.backend.db.repository.TagCount;
 import com.kefang.backend.db.repository.TagRepository;
+import com.kefang.backend.db.repository.VideoCard;
 import com.kefang.backend.db.repository.VideoRepository;
+import com.kefang.backend.db.repository.VideoSearch;
+import com.kefang.backend.service.ProfileChange;
+import com.kefang.backend.service.ReactionBuffer;
+import com.kefang.backend.service.SearchConcurrencyLimiter;
+import com.kefang.backend.service.SimilarVideos;
+import com.kefang.backend.service.TagDictionary;
+import com.kefang.backend.service.TagSuggestions;
+import com.kefang.backend.service.VideoCardFragments;
+import com.kefang.backend.service.VideoFacetService;
+import com.kefang.backend.service.VideoSearchCache;
+import com.kefang.backend.service.VideoSearchCoalescer;
+import com.kefang.backend.service.VideoSearchService;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @SpringBootTest
+@AutoConfigureMockMvc
 public class AppTest {
 
     @Autowired
@@ -40,9 +107,61 @@ public class AppTest {
     @Autowired
     private CountryRepository countryRepository;
 
+    @Autowired
+    private ProfileRepository profileRepository;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TagDictionary tagDictionary;
+
+    @Autowired
+    private VideoSearchCache videoSearchCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private VideoCardFragments videoCardFragments;
+
+    @Autowired
+    private VideoSearchService videoSearchService;
+
+    @Autowired
+    private ApplicationEventMulticaster eventMulticaster;
+
+    @Autowired
+    private VideoFacetService videoFacetService;
+
+    @Autowired
+    private TagSuggestions tagSuggestions;
+
+    @Autowired
+    private SearchConcurrencyLimiter searchLimiter;
+
+    @Autowired
+    private VideoSearchCoalescer videoSearchCoalescer;
+
+    @Autowired
+    private SimilarVideos similarVideos;
+
+    @Autowired
+    private ReactionBuffer reactionBuffer;
+
     @BeforeEach
     public void clearDatabase() {
+        reactionBuffer.flush();
         jdbcTemplate.execute("truncate table video_tag, video, profile, account restart identity cascade");
+        videoSearchCache.invalidateAll();
+        videoCardFragments.invalidateAll();
+        videoFacetService.invalidateAll();
     }
 
     @Test
@@ -70,6 +189,54 @@ public class AppTest {
         assertTrue(countryNames.size() > 0, "table 'countries' not initialized");
     }
 
+    @Test
+    void testCountriesResponse() throws Exception {
+        MockHttpServletResponse plain = mockMvc.perform(get("/api/countries")).andExpect(status().isOk())
+                .andReturn().getResponse();
+        JSONArray countries = new JSONArray(plain.getContentAsString());
+        assertEquals(countryRepository.count(), countries.length());
+        assertEquals("Afghanistan", countries.getJSONObject(0).getString("name"));
+        assertEquals("AF", countries.getJSONObject(0).getString("code"));
+        assertTrue(plain.getHeader(HttpHeaders.CACHE_CONTROL).contains("max-age=86400"));
+
+        MockHttpServletResponse gzipped = mockMvc.perform(get("/api/countries")
+                .header(HttpHeaders.ACCEPT_ENCODING, "br;q=1.0, gzip;q=0.8")).andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertEquals("gzip", gzipped.getHeader(HttpHeaders.CONTENT_ENCODING));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+            assertArrayEquals(plain.getContentAsByteArray(), in.readAllBytes());
+        }
+        assertNull(mockMvc.perform(get("/api/countries").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0"))
+                .andReturn().getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+
+        mockMvc.perform(get("/api/countries").header(HttpHeaders.IF_NONE_MATCH, plain.getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+        assertNotEquals(plain.getHeader(HttpHeaders.ETAG), gzipped.getHeader(HttpHeaders.ETAG),
+                "expect each encoding to have its own strong ETag");
+        mockMvc.perform(get("/api/countries").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .header(HttpHeaders.IF_NONE_MATCH, plain.getHeader(HttpHeaders.ETAG))).andExpect(status().isOk());
+        mockMvc.perform(get("/api/countries").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .header(HttpHeaders.IF_NONE_MATCH, gzipped.getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void testSearchRejectsUnknownCountry() throws Exception {
+        mockMvc.perform(searchRequest("countryCode", "XX", "pageSize", "10")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/videos/export").param("countryCode", "gb")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testSearchRejectsBadPage() throws Exception {
+        for (String pageSize : List.of("0", "-1", "101")) {
+            mockMvc.perform(searchRequest("countryCode", "GB", "pageSize", pageSize))
+                    .andExpect(status().isBadRequest());
+        }
+        mockMvc.perform(searchRequest("countryCode", "GB", "pageSize", "100", "pageNumber", "2147483647"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(searchRequest("countryCode", "GB", "pageSize", "100")).andExpect(status().isOk());
+    }
+
     @Test
     void testSearchVideoByCountry() {
         long accountId = prepareAccount();
@@ -83,8 +250,725 @@ public class AppTest {
         assertEquals(video.getId(), videos.get(0).getId(), "not getting the expected video");
     }
 
+    @Test
+    void testSearchVideoQueryCountIndependentOfPageSize() throws Exception {
+        for (int i = 0; i < 30; ++i) {
+            long accountId = prepareAccount("author" + i + "@gmail.com");
+            prepareProfile(accountId, "author" + i, new Date());
+            videoRepository.save(new Video(accountId, "GB", "Title " + i, "Description", "video" + i, "mp4", 1024,
+                    "https://storage.cloud.google.com/video" + i + ".mp4",
+                    "https://storage.cloud.google.com/video" + i + ".png", new Date(), new Date()));
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        JSONArray small = searchVideos("countryCode", "GB", "pageSize", "3");
+        long smallPageStatements = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        JSONArray large = searchVideos("countryCode", "GB", "pageSize", "30");
+        long largePageStatements = statistics.getPrepareStatementCount();
+
+        assertEquals(3, small.length());
+        assertEquals(30, large.length());
+        for (int i = 0; i < large.length(); ++i) {
+            JSONObject video = large.getJSONObject(i);
+            assertEquals(video.getLong("accountId"), video.getJSONObject("profile").getLong("accountId"),
+                    "video enriched with the wrong profile");
+        }
+        assertEquals(smallPageStatements, largePageStatements, "query count grows with page size");
+    }
+
+    @Test
+    void testSearchVideoWithCursor() throws Exception {
+        long accountId = prepareAccount();
+        Date sameInstant = new Date();
+        for (int i = 0; i < 7; ++i) {
+            videoRepository.save(new Video(accountId, "GB", "Title " + i, "Description", "video" + i, "mp4", 1024,
+                    "https://storage.cloud.google.com/video" + i + ".mp4",
+                    "https://storage.cloud.google.com/video" + i + ".png", null, i < 4 ? sameInstant : new Date()));
+        }
+        List<Long> expected = new ArrayList<>();
+        JSONArray all = searchVideos("pageSize", "10");
+        for (int i = 0; i < all.length(); ++i) {
+            expected.add(all.getJSONObject(i).getLong("id"));
+        }
+
+        List<Long> paged = new ArrayList<>();
+        String cursor = "";
+        int pages = 0;
+        while (cursor != null) {
+            MvcResult result = mockMvc.perform(get("/api/videos").param("countryCode", "").param("keyword", "")
+                    .param("tags", "").param("pageSize", "3").param("cursor", cursor))
+                    .andExpect(status().isOk()).andReturn();
+            JSONArray page = new JSONArray(result.getResponse().getContentAsString());
+            for (int i = 0; i < page.length(); ++i) {
+                paged.add(page.getJSONObject(i).getLong("id"));
+            }
+            cursor = result.getResponse().getHeader(VideoController.NEXT_CURSOR_HEADER);
+            ++pages;
+        }
+        assertEquals(7, expected.size());
+        assertEquals(expected, paged, "cursor pages skipped or repeated videos");
+        assertEquals(3, pages);
+
+        mockMvc.perform(get("/api/videos").param("countryCode", "").param("keyword", "").param("tags", "")
+                .param("pageSize", "3").param("cursor", "not a cursor")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testSearchResultCacheInvalidatedByCountry() throws Exception {
+        long accountId = prepareAccount();
+        videoRepository.save(newVideo(accountId, "GB", 1));
+        videoRepository.save(newVideo(accountId, "US", 2));
+        awaitChangesAnnounced();
+        assertEquals(1, searchVideos("countryCode", "GB", "pageSize", "10").length());
+        assertEquals(1, searchVideos("countryCode", "US", "pageSize", "10").length());
+
+        double hits = searchCacheHits();
+        assertEquals(1, searchVideos("countryCode", "GB", "pageSize", "10").length());
+        assertEquals(hits + 1, searchCacheHits(), "expect the repeated search to be served from cache");
+
+        videoRepository.save(newVideo(accountId, "GB", 3));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (searchVideos("countryCode", "GB", "pageSize", "10").length() != 2) {
+            assertTrue(System.currentTimeMillis() < deadline, "cached GB page not invalidated by a new GB video");
+            Thread.sleep(50);
+        }
+        hits = searchCacheHits();
+        assertEquals(1, searchVideos("countryCode", "US", "pageSize", "10").length());
+        assertEquals(hits + 1, searchCacheHits(), "expect the US page to survive a change to a GB video");
+    }
+
+    @Test
+    void testSearchStageMetrics() throws Exception {
+        long accountId = prepareAccount();
+        videoRepository.save(newVideo(accountId, "GB", 1));
+
+        long queries = stageCount("query");
+        long cacheLoads = stageCount("cache");
+        long serializations = stageCount("serialize");
+        DistributionSummary roundTrips = meterRegistry.get("video.search.round.trips").tag("country", "true")
+                .tag("keyword", "false").tag("tags", "false").summary();
+        long requests = roundTrips.count();
+        double statements = roundTrips.totalAmount();
+
+        assertEquals(1, searchVideos("countryCode", "GB", "pageSize", "10").length());
+        assertEquals(1, searchVideos("countryCode", "GB", "pageSize", "10").length());
+
+        // the second search hits the cache unless the insert's notification evicted it in between
+        assertEquals(queries + cacheLoads + 2, stageCount("query") + stageCount("cache"));
+        assertEquals(serializations + 2, stageCount("serialize"));
+        assertEquals(requests + 2, roundTrips.count());
+        assertEquals(statements + 4, roundTrips.totalAmount(), "expect a page and a profile lookup per request");
+    }
+
+    @Test
+    void testExportVideosAsNdjson() throws Exception {
+        long accountId = prepareAccount();
+        prepareProfile(accountId, "author", new Date());
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            Video video = newVideo(accountId, "GB", i);
+            video.setCreatedAt(new Date(System.currentTimeMillis() - i * 1000));
+            ids.add(videoRepository.save(video).getId());
+        }
+        videoRepository.save(newVideo(accountId, "US", 5));
+
+        MvcResult result = mockMvc.perform(get("/api/videos/export").param("countryCode", "GB"))
+                .andExpect(status().isOk()).andReturn();
+        assertEquals(VideoController.NDJSON, result.getResponse().getContentType());
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(5, lines.length, "expect one line per GB video across several fetches");
+        for (int i = 0; i < lines.length; ++i) {
+            JSONObject video = new JSONObject(lines[i]);
+            assertEquals(ids.get(i).longValue(), video.getLong("id"), "expect newest first");
+            assertEquals("author", video.getJSONObject("profile").getString("username"));
+        }
+
+        String unknownTag = mockMvc.perform(get("/api/videos/export").param("tags", "no such tag"))
+                .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        assertEquals("", unknownTag);
+    }
+
+    @Test
+    void testConditionalSearch() throws Exception {
+        long accountId = prepareAccount();
+        videoRepository.save(newVideo(accountId, "GB", 1));
+        awaitChangesAnnounced();
+
+        MvcResult first = mockMvc.perform(searchRequest()).andExpect(status().isOk()).andReturn();
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(etag != null && etag.startsWith("W/"), "expect a weak ETag, got " + etag);
+        assertEquals("max-age=10, public", first.getResponse().getHeader(HttpHeaders.CACHE_CONTROL));
+
+        long searches = stageCount("query") + stageCount("cache");
+        MvcResult revalidated = mockMvc.perform(searchRequest().header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified()).andReturn();
+        assertEquals("", revalidated.getResponse().getContentAsString());
+        assertEquals(etag, revalidated.getResponse().getHeader(HttpHeaders.ETAG));
+        assertEquals(searches, stageCount("query") + stageCount("cache"), "expect no search for a 304");
+        mockMvc.perform(searchRequest("countryCode", "gb", "pageSize", "10").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(searchRequest("cursor", "not a cursor", "pageSize", "10").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isBadRequest());
+
+        prepareProfile(accountId, "renamed", new Date());
+        awaitChangesAnnounced();
+        mockMvc.perform(searchRequest().header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isOk());
+    }
+
+    @Test
+    void testPopularSearch() throws Exception {
+        long accountId = prepareAccount();
+        List<Long> videoIds = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            videoIds.add(videoRepository.save(newVideo(accountId, "GB", i)).getId());
+        }
+        jdbcTemplate.update("insert into likes (account_id, video_id) values (?, ?)", accountId, videoIds.get(1));
+        jdbcTemplate.update("insert into comments (account_id, video_id, comment) values (?, ?, 'nice')", accountId,
+                videoIds.get(0));
+
+        MvcResult result = mockMvc.perform(searchRequest("countryCode", "GB", "pageSize", "10", "sort", "POPULAR"))
+                .andExpect(status().isOk()).andReturn();
+        JSONArray videos = new JSONArray(result.getResponse().getContentAsString());
+        assertEquals(3, videos.length());
+        assertEquals(videoIds.get(0).longValue(), videos.getJSONObject(0).getLong("id"));
+        assertEquals(videoIds.get(1).longValue(), videos.getJSONObject(1).getLong("id"));
+        assertNull(result.getResponse().getHeader(HttpHeaders.ETAG), "expect engagement orders not to be validated");
+        assertEquals("max-age=10, public", result.getResponse().getHeader(HttpHeaders.CACHE_CONTROL));
+    }
+
+    @Test
+    void testReactionsWrittenBehind() throws Exception {
+        long accountId = prepareAccount();
+        long otherId = prepareAccount("other@gmail.com");
+        long videoId = videoRepository.save(newVideo(accountId, "GB", 1)).getId();
+        jdbcTemplate.update("insert into likes (account_id, video_id) values (?, ?)", otherId, videoId);
+
+        for (int i = 0; i < 3; ++i) {
+            mockMvc.perform(put("/api/videos/" + videoId + "/likes/" + accountId)).andExpect(status().isAccepted());
+        }
+        mockMvc.perform(put("/api/videos/" + videoId + "/saves/" + accountId)).andExpect(status().isAccepted());
+        mockMvc.perform(put("/api/videos/" + videoId + "/saves/" + otherId)).andExpect(status().isAccepted());
+        mockMvc.perform(delete("/api/videos/" + videoId + "/saves/" + otherId)).andExpect(status().isAccepted());
+        mockMvc.perform(delete("/api/videos/" + videoId + "/likes/" + otherId)).andExpect(status().isAccepted());
+        mockMvc.perform(put("/api/videos/" + (videoId + 1) + "/likes/" + accountId)).andExpect(status().isAccepted());
+        mockMvc.perform(put("/api/videos/" + videoId + "/comments/" + accountId)).andExpect(status().isNotFound());
+        mockMvc.perform(put("/api/videos/" + videoId + "/likes/99999999999")).andExpect(status().isBadRequest());
+        // past the controller, an id out of range is dropped like an unknown one
+        reactionBuffer.record(new Reaction(ReactionType.SAVE, 99999999999L, videoId), true);
+
+        String engagement = "select likes || '/' || saves from video_engagement where video_id = ?";
+        assertEquals("1/0", jdbcTemplate.queryForObject(engagement, String.class, videoId),
+                "expect reactions to wait for a flush");
+        double written = meterRegistry.get("reactions.written").counter().count();
+
+        reactionBuffer.flush();
+        assertEquals(List.of(accountId), jdbcTemplate.queryForList("select account_id from likes", Long.class),
+                "expect the last state of each reaction, skipping unknown videos");
+        assertEquals(List.of(accountId), jdbcTemplate.queryForList("select account_id from saves", Long.class));
+        assertEquals("1/1", jdbcTemplate.queryForObject(engagement, String.class, videoId));
+        assertEquals(written + 6, meterRegistry.get("reactions.written").counter().count());
+    }
+
+    MockHttpServletRequestBuilder searchRequest() {
+        return get("/api/videos").param("countryCode", "GB").param("keyword", "").param("tags", "")
+                .param("pageSize", "10");
+    }
+
+    /**
+     * Waits until the change listener has handled every change committed so
+     * far, by sending a marker notification after them.
+     */
+    void awaitChangesAnnounced() throws InterruptedException {
+        long marker = -System.nanoTime();
+        CountDownLatch seen = new CountDownLatch(1);
+        ApplicationListener<ApplicationEvent> listener = event -> {
+            if (event instanceof PayloadApplicationEvent<?> payload
+                    && payload.getPayload() instanceof ProfileChange change && change.accountId() == marker) {
+                seen.countDown();
+            }
+        };
+        eventMulticaster.addApplicationListener(listener);
+        try {
+            jdbcTemplate.execute("select pg_notify('video_change', '{\"profileAccountId\": " + marker + "}')");
+            assertTrue(seen.await(5, TimeUnit.SECONDS), "changes not announced");
+        } finally {
+            eventMulticaster.removeApplicationListener(listener);
+        }
+    }
+
+    @Test
+    void testSearchResponseSplicesCachedFragments() throws Exception {
+        long accountId = prepareAccount();
+        prepareProfile(accountId, "author", new Date());
+        for (int i = 0; i < 3; ++i) {
+            videoRepository.save(newVideo(accountId, "GB", i));
+        }
+        awaitChangesAnnounced();
+        byte[] plain = objectMapper.writer().withAttribute(VideoCardJsonModule.BYPASS, true).writeValueAsBytes(videoSearchService.search(VideoSearch.of("GB", "", List.of()).page(10, 0)));
+
+        byte[] first = mockMvc.perform(searchRequest()).andReturn().getResponse().getContentAsByteArray();
+        double hits = fragmentHits();
+        byte[] second = mockMvc.perform(searchRequest()).andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(hits + 3, fragmentHits(), "expect every card of the second page from cache");
+        assertArrayEquals(plain, first);
+        assertArrayEquals(plain, second);
+    }
+
+    double fragmentHits() {
+        return meterRegistry.get("cache.gets").tag("cache", "video.fragments").tag("result", "hit").functionCounter()
+                .count();
+    }
+
+    long stageCount(String stage) {
+        return meterRegistry.get("video.search.stage").tag("stage", stage).tag("country", "true")
+                .tag("keyword", "false").tag("tags", "false").timer().count();
+    }
+
+    double searchCacheHits() {
+        return meterRegistry.get("cache.gets").tag("cache", "video.search").tag("result", "hit").functionCounter()
+                .count();
+    }
+
+    Video newVideo(long accountId, String countryCode, int i) {
+        return new Video(accountId, countryCode, "Title " + i, "Description", "video" + i, "mp4", 1024,
+                "https://storage.cloud.google.com/video" + i + ".mp4",
+                "https://storage.cloud.google.com/video" + i + ".png", null, new Date());
+    }
+
+    @Test
+    void testFindNewestProfilePerAccount() {
+        long accountId = prepareAccount();
+        prepareProfile(accountId, "old_name", new Date(System.currentTimeMillis() - 60_000));
+        prepareProfile(accountId, "new_name", new Date());
+        prepareProfile(accountId, "never_updated", null);
+        List<ProfileCard> profiles = profileRepository.findNewestCardsByAccountIdIn(List.of(accountId));
+        assertEquals(1, profiles.size(), "expect one profile per account");
+        assertEquals("new_name", profiles.get(0).username());
+    }
+
+    @Test
+    void testSearchResultJsonMatchesEntities() throws Exception {
+        long accountId = prepareAccount();
+        prepareProfile(accountId, "author", new Date());
+        Video video = videoRepository.save(newVideo(accountId, "GB", 1));
+
+        video = videoRepository.findById(video.getId()).orElseThrow();
+        video.setProfile(profileRepository.findByAccountId(accountId).get(0));
+        JSONArray expected = new JSONArray(objectMapper.writeValueAsString(List.of(video)));
+
+        JSONArray actual = searchVideos("countryCode", "GB", "pageSize", "10");
+        assertTrue(expected.similar(actual), "expect cards to serialize like entities, got " + actual);
+    }
+
+    @Test
+    void testSearchFacets() throws Exception {
+        long accountId = prepareAccount();
+        long embroidery = tagRepository.findByWord("Embroidery").get(0).getId();
+        for (int i = 0; i < 7; ++i) {
+            Video video = videoRepository.save(newVideo(accountId, i < 6 ? "GB" : "FR", i));
+            if (i != 1) {
+                jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)", video.getId(), embroidery);
+            }
+        }
+
+        JSONObject page = searchPage("countryCode", "GB", "pageSize", "2", "facets", "true");
+        assertEquals(2, page.getJSONArray("videos").length());
+        JSONObject facets = page.getJSONObject("facets");
+        assertEquals(6, facets.getLong("total"));
+        assertTrue(facets.getBoolean("exact"));
+        assertEquals("Embroidery", facets.getJSONArray("tags").getJSONObject(0).getString("tag"));
+        assertEquals(5, facets.getJSONArray("tags").getJSONObject(0).getLong("videos"));
+        assertTrue(facets.getBoolean("tagsExact"));
+
+        facets = searchPage("keyword", "title", "pageSize", "2", "facets", "true").getJSONObject("facets");
+        assertEquals(5, facets.getLong("total"), "expect counting to stop at the scan limit");
+        assertFalse(facets.getBoolean("exact"));
+        assertFalse(facets.getBoolean("tagsExact"));
+
+        facets = searchPage("tags", "Embroidery", "pageSize", "2", "facets", "true").getJSONObject("facets");
+        assertEquals(6, facets.getLong("total"));
+        assertTrue(facets.getBoolean("exact"), "expect the maintained total of a tag to be exact");
+        assertFalse(facets.getBoolean("tagsExact"), "expect its tags to be counted over the scan limit only");
+
+        assertEquals(2, searchVideos("countryCode", "GB", "pageSize", "2").length(),
+                "expect a plain array without facets");
+    }
+
+    @Test
+    void testSearchFacetsDegradeWhenSlow() throws Exception {
+        long accountId = prepareAccount();
+        for (int i = 0; i < 3; ++i) {
+            videoRepository.save(newVideo(accountId, "GB", i));
+        }
+        double degraded = meterRegistry.get("video.facets.degraded").counter().count();
+        try (Connection locking = jdbcTemplate.getDataSource().getConnection()) {
+            locking.setAutoCommit(false);
+            locking.createStatement().execute("lock table video_count in access exclusive mode");
+            JSONObject page = searchPage("countryCode", "GB", "pageSize", "2", "pageNumber", "2", "facets", "true");
+            locking.rollback();
+
+            assertEquals(1, page.getJSONArray("videos").length());
+            JSONObject facets = page.getJSONObject("facets");
+            assertEquals(3, facets.getLong("total"), "expect the videos up to the end of the page");
+            assertFalse(facets.getBoolean("exact"));
+            assertFalse(facets.getBoolean("tagsExact"));
+            assertEquals(0, facets.getJSONArray("tags").length());
+            assertEquals(degraded + 1, meterRegistry.get("video.facets.degraded").counter().count());
+        }
+    }
+
+    JSONObject searchPage(String... params) throws Exception {
+        return new JSONObject(mockMvc.perform(searchRequest(params)).andExpect(status().isOk()).andReturn()
+                .getResponse().getContentAsString());
+    }
+
+    MockHttpServletRequestBuilder bulkRequest() {
+        return post("/api/videos/bulk").header(HttpHeaders.AUTHORIZATION, "Bearer test-ingest-token");
+    }
+
+    @Test
+    void testBulkIngest() throws Exception {
+        long accountId = prepareAccount();
+        JSONArray videos = new JSONArray();
+        for (int i = 0; i < 5; ++i) {
+            videos.put(new JSONObject(Map.of("accountId", accountId, "countryCode", "GB", "title", "Bulk " + i,
+                    "name", "bulk" + i, "type", "mp4", "size", 1024,
+                    "uploadUrl", "https://storage.cloud.google.com/bulk" + i + ".mp4",
+                    "thumbnailUrl", "https://storage.cloud.google.com/bulk" + i + ".png",
+                    "tags", i % 2 == 0 ? List.of("Embroidery", i == 4 ? " Bulk Ingested " : "Bulk Ingested",
+                            "Embroidery") : List.of())));
+        }
+        try {
+            JSONArray ids = new JSONArray(mockMvc.perform(bulkRequest()
+                    .contentType(MediaType.APPLICATION_JSON).content(videos.toString()))
+                    .andExpect(status().isOk()).andReturn().getResponse().getContentAsString());
+
+            assertEquals(5, ids.length());
+            for (int i = 0; i < ids.length(); ++i) {
+                assertEquals("Bulk " + i, videoRepository.findById(ids.getLong(i)).orElseThrow().getTitle());
+            }
+            assertEquals(6, jdbcTemplate.queryForObject("select count(*) from video_tag", Integer.class),
+                    "expect duplicated tag words to be tagged once");
+            assertEquals(3, jdbcTemplate.queryForObject("select count(*) from video_tag vt join tag t"
+                    + " on t.id = vt.tag_id where t.word = 'Bulk Ingested'", Integer.class),
+                    "expect tag words to be stripped");
+            assertEquals(5, searchVideos("countryCode", "GB", "pageSize", "10").length());
+        } finally {
+            jdbcTemplate.update("delete from tag where word = 'Bulk Ingested'");
+        }
+
+        mockMvc.perform(bulkRequest().contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"accountId\": 1, \"type\": \"mp4\", \"size\": 1}]"))
+                .andExpect(status().isBadRequest());
+        long before = videoRepository.count();
+        String valid = "{\"accountId\": " + accountId + ", \"name\": \"v\", \"type\": \"mp4\", \"size\": 1}";
+        mockMvc.perform(post("/api/videos/bulk").contentType(MediaType.APPLICATION_JSON).content("[" + valid + "]"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(post("/api/videos/bulk").header(HttpHeaders.AUTHORIZATION, "Bearer wrong")
+                .contentType(MediaType.APPLICATION_JSON).content("[" + valid + "]"))
+                .andExpect(status().isUnauthorized());
+        for (String invalid : List.of("{\"name\": \"v\", \"type\": \"mp4\", \"size\": 1}",
+                "{\"accountId\": 999999, \"name\": \"v\", \"type\": \"mp4\", \"size\": 1}",
+                "{\"accountId\": " + accountId + ", \"name\": \"v\", \"type\": \"mp4\", \"size\": 1,"
+                        + " \"tags\": [\" \"]}",
+                "{\"accountId\": " + accountId + ", \"name\": \"v\", \"type\": \"mp4\", \"size\": 1,"
+                        + " \"tags\": [null]}")) {
+            // the valid chunk ahead of the invalid video is not committed either
+            mockMvc.perform(bulkRequest().contentType(MediaType.APPLICATION_JSON)
+                    .content("[" + valid + ", " + valid + ", " + invalid + "]"))
+                    .andExpect(status().isBadRequest());
+        }
+        assertEquals(before, videoRepository.count());
+    }
+
+    @Test
+    void testBatchFetchInRequestedOrder() throws Exception {
+        List<Long> videoIds = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            long accountId = prepareAccount("author" + i + "@gmail.com");
+            prepareProfile(accountId, "author" + i, new Date());
+            videoIds.add(videoRepository.save(newVideo(accountId, "GB", i)).getId());
+        }
+        List<Tag> tags = List.of(tagRepository.save(new Tag("Batch B", new Date())),
+                tagRepository.save(new Tag("Batch A", new Date())));
+        try {
+            for (Tag tag : tags) {
+                jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)", videoIds.get(0),
+                        tag.getId());
+            }
+
+            Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+            statistics.clear();
+            JSONObject one = fetchBatch(String.valueOf(videoIds.get(1)));
+            long oneStatements = statistics.getPrepareStatementCount();
+            statistics.clear();
+            JSONObject batch = fetchBatch(videoIds.get(2) + ",999999," + videoIds.get(0) + "," + videoIds.get(3) + ","
+                    + videoIds.get(2));
+            assertEquals(oneStatements, statistics.getPrepareStatementCount(), "query count grows with batch size");
+
+            assertEquals(1, one.getJSONArray("videos").length());
+            JSONArray videos = batch.getJSONArray("videos");
+            assertEquals(3, videos.length());
+            for (int i = 0; i < videos.length(); ++i) {
+                assertEquals(videoIds.get(new int[] { 2, 0, 3 }[i]).longValue(), videos.getJSONObject(i).getLong("id"));
+            }
+            assertEquals("author0", videos.getJSONObject(1).getJSONObject("profile").getString("username"));
+            assertEquals("[999999]", batch.getJSONArray("missing").toString());
+            assertEquals("[\"Batch A\",\"Batch B\"]",
+                    batch.getJSONObject("tags").getJSONArray(String.valueOf(videoIds.get(0))).toString());
+            assertFalse(batch.getJSONObject("tags").has(String.valueOf(videoIds.get(2))));
+        } finally {
+            tagRepository.deleteAll(tags);
+        }
+
+        String tooMany = String.join(",", Collections.nCopies(201, "1"));
+        mockMvc.perform(get("/api/videos/batch").param("ids", tooMany)).andExpect(status().isBadRequest());
+    }
+
+    JSONObject fetchBatch(String ids) throws Exception {
+        return new JSONObject(mockMvc.perform(get("/api/videos/batch").param("ids", ids)).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+    }
+
+    @Test
+    void testSearchesOverLimitRefused() throws Exception {
+        List<SearchConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        double rejected = meterRegistry.get("video.search.rejected").counter().count();
+        try {
+            for (SearchConcurrencyLimiter.Permit permit; (permit = searchLimiter.tryAcquire()) != null;) {
+                permits.add(permit);
+            }
+            assertEquals((int) searchLimiter.limit(), permits.size());
+            MockHttpServletResponse refused = mockMvc.perform(searchRequest())
+                    .andExpect(status().isServiceUnavailable()).andReturn().getResponse();
+            assertEquals("1", refused.getHeader(HttpHeaders.RETRY_AFTER));
+            assertEquals(rejected + 2, meterRegistry.get("video.search.rejected").counter().count());
+            assertEquals(permits.size(), meterRegistry.get("video.search.inflight").gauge().value());
+        } finally {
+            permits.forEach(permit -> permit.release(false));
+        }
+        mockMvc.perform(searchRequest()).andExpect(status().isOk());
+
+        SearchConcurrencyLimiter limiter = new SearchConcurrencyLimiter(new SimpleMeterRegistry(), 20, 4, 100, 0,
+                Duration.ZERO);
+        for (SearchConcurrencyLimiter.Permit permit : acquireAll(limiter)) {
+            permit.release(false);
+        }
+        double unloaded = limiter.limit();
+        List<SearchConcurrencyLimiter.Permit> slow = acquireAll(limiter);
+        Thread.sleep(100);
+        slow.forEach(permit -> permit.release(false));
+        assertTrue(limiter.limit() < unloaded, "expect the limit to shrink as latency grows");
+        double loaded = limiter.limit();
+        limiter.tryAcquire().release(true);
+        assertTrue(limiter.limit() < loaded, "expect the limit to shrink on failure");
+    }
+
+    private static List<SearchConcurrencyLimiter.Permit> acquireAll(SearchConcurrencyLimiter limiter)
+            throws InterruptedException {
+        List<SearchConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (SearchConcurrencyLimiter.Permit permit; (permit = limiter.tryAcquire()) != null;) {
+            permits.add(permit);
+        }
+        return permits;
+    }
+
+    @Test
+    void testIdenticalSearchesCoalesced() throws Exception {
+        // a change announced meanwhile would start a second run
+        awaitChangesAnnounced();
+        VideoSearch search = VideoSearch.of("", "", List.of()).page(17, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (Connection locking = jdbcTemplate.getDataSource().getConnection()) {
+            for (boolean cancel : new boolean[] { false, true }) {
+                videoSearchCache.invalidateAll();
+                double coalesced = meterRegistry.get("video.search.coalesced").counter().count();
+                locking.setAutoCommit(false);
+                locking.createStatement().execute("lock table video in access exclusive mode");
+                List<Future<List<VideoCard>>> searches = new ArrayList<>();
+                for (int i = 0; i < 4; ++i) {
+                    searches.add(executor.submit(() -> videoSearchCoalescer.search(search)));
+                }
+                long deadline = System.currentTimeMillis() + 5000;
+                while (blockedQueries() == 0) {
+                    assertTrue(System.currentTimeMillis() < deadline, "search never reached the locked table");
+                    Thread.sleep(10);
+                }
+                // give the other searches time to join the blocked one
+                Thread.sleep(300);
+                assertEquals(1, blockedQueries());
+                if (cancel) {
+                    jdbcTemplate.queryForList("select pg_cancel_backend(pid) from pg_stat_activity"
+                            + " where wait_event_type = 'Lock' and datname = current_database()");
+                }
+                locking.rollback();
+
+                List<Object> outcomes = new ArrayList<>();
+                for (Future<List<VideoCard>> future : searches) {
+                    try {
+                        outcomes.add(future.get());
+                    } catch (ExecutionException e) {
+                        outcomes.add(e.getCause());
+                    }
+                }
+                assertEquals(1, outcomes.stream().distinct().count(), "expect one outcome shared by all");
+                assertEquals(cancel, outcomes.get(0) instanceof Exception);
+                assertEquals(coalesced + 3, meterRegistry.get("video.search.coalesced").counter().count());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private long blockedQueries() {
+        return jdbcTemplate.queryForObject("select count(*) from pg_stat_activity"
+                + " where wait_event_type = 'Lock' and datname = current_database()", Long.class);
+    }
+
+    @Test
+    void testSimilarVideosByTags() throws Exception {
+        long accountId = prepareAccount();
+        prepareProfile(accountId, "author", new Date());
+        List<Long> videoIds = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            videoIds.add(videoRepository.save(newVideo(accountId, i == 3 ? "US" : "GB", i)).getId());
+        }
+        Tag rare = tagRepository.save(new Tag("Similar Rare", new Date()));
+        Tag common = tagRepository.save(new Tag("Similar Common", new Date()));
+        try {
+            int[][] tagged = { { 0, 1, 3 }, { 0, 1, 2, 4 } };
+            for (int t = 0; t < tagged.length; ++t) {
+                for (int i : tagged[t]) {
+                    jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)", videoIds.get(i),
+                            (t == 0 ? rare : common).getId());
+                }
+            }
+            awaitChangesAnnounced();
+            similarVideos.refresh();
+
+            // sharing both tags, then the rare one, then the common one newest first
+            assertEquals(List.of(1, 3, 4, 2), similarTo(videoIds, 0, ""));
+            assertEquals(List.of(1, 4, 2), similarTo(videoIds, 0, "GB"));
+            assertTrue(meterRegistry.get("videos.similar.index.bytes").gauge().value() > 0);
+
+            jdbcTemplate.update("delete from video_tag where video_id = ? and tag_id = ?", videoIds.get(1),
+                    rare.getId());
+            jdbcTemplate.update("update video set thumbnail_url = null where id = ?", videoIds.get(4));
+            awaitChangesAnnounced();
+            similarVideos.refresh();
+            assertEquals(List.of(3, 2, 1), similarTo(videoIds, 0, ""));
+
+            mockMvc.perform(get("/api/videos/" + videoIds.get(4) + "/similar")).andExpect(status().isNotFound());
+            mockMvc.perform(get("/api/videos/" + videoIds.get(0) + "/similar").param("limit", "0"))
+                    .andExpect(status().isBadRequest());
+        } finally {
+            tagRepository.deleteAll(List.of(rare, common));
+        }
+    }
+
+    private List<Integer> similarTo(List<Long> videoIds, int video, String countryCode) throws Exception {
+        JSONArray similar = new JSONArray(mockMvc.perform(get("/api/videos/" + videoIds.get(video) + "/similar")
+                .param("countryCode", countryCode)).andExpect(status().isOk()).andReturn().getResponse()
+                .getContentAsString());
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < similar.length(); ++i) {
+            positions.add(videoIds.indexOf(similar.getJSONObject(i).getLong("id")));
+        }
+        return positions;
+    }
+
+    @Test
+    void testTagSuggestions() throws Exception {
+        long accountId = prepareAccount();
+        long embroidery = tagRepository.findByWord("Embroidery").get(0).getId();
+        for (int i = 0; i < 3; ++i) {
+            Video video = videoRepository.save(newVideo(accountId, "GB", i));
+            jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)", video.getId(), embroidery);
+        }
+        Tag added = tagRepository.save(new Tag("Machine Embroidery", new Date()));
+        try {
+            awaitChangesAnnounced();
+            tagSuggestions.refresh();
+            List<TagCount> suggestions = tagSuggestions.suggest("EMB", 10);
+            assertEquals(List.of(new TagCount("Embroidery", 3), new TagCount("Machine Embroidery", 0)),
+                    suggestions, "expect tags ranked by videos and matched on any word");
+            assertEquals(suggestions, tagSuggestions.suggest("em", 2), "expect short prefixes ranked in advance");
+            assertEquals(List.of(new TagCount("Embroidery", 3)), tagSuggestions.suggest("", 1));
+            assertEquals(List.of(), tagSuggestions.suggest("no such tag", 10));
+
+            for (int i = 3; i < 7; ++i) {
+                Video video = videoRepository.save(newVideo(accountId, "GB", i));
+                jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)", video.getId(),
+                        added.getId());
+            }
+            awaitChangesAnnounced();
+            tagSuggestions.refresh();
+            assertEquals(List.of(new TagCount("Machine Embroidery", 4), new TagCount("Embroidery", 3)),
+                    tagSuggestions.suggest("em", 2), "expect changed counts picked up");
+
+            JSONArray response = new JSONArray(mockMvc.perform(get("/api/tags/suggest").param("prefix", "machine e"))
+                    .andExpect(status().isOk()).andReturn().getResponse().getContentAsString());
+            assertEquals(1, response.length());
+            assertEquals("Machine Embroidery", response.getJSONObject(0).getString("tag"));
+            mockMvc.perform(get("/api/tags/suggest").param("prefix", "e").param("limit", "0"))
+                    .andExpect(status().isBadRequest());
+        } finally {
+            tagRepository.delete(added);
+            tagSuggestions.reload();
+        }
+        assertEquals(List.of(new TagCount("Embroidery", 3)), tagSuggestions.suggest("emb", 10));
+    }
+
+    @Test
+    void testResolveTagWords() {
+        long embroidery = tagRepository.findByWord("Embroidery").get(0).getId();
+        Integer[] tagIds = tagDictionary.resolve(List.of("Embroidery", "no such tag", "Embroidery"));
+        assertEquals(1, tagIds.length, "expect unknown and duplicated words to be dropped");
+        assertEquals(embroidery, tagIds[0].longValue());
+
+        Tag added = tagRepository.save(new Tag("Added After Startup", new Date()));
+        try {
+            tagIds = tagDictionary.resolve(List.of("Added After Startup"));
+            assertEquals(1, tagIds.length, "expect tags missing from the dictionary to be looked up");
+            assertEquals(added.getId(), tagIds[0].longValue());
+        } finally {
+            tagRepository.delete(added);
+            tagDictionary.refresh();
+        }
+    }
+
+    JSONArray searchVideos(String... params) throws Exception {
+        String body = mockMvc.perform(searchRequest(params)).andExpect(status().isOk()).andReturn().getResponse()
+                .getContentAsString();
+        return new JSONArray(body);
+    }
+
+    MockHttpServletRequestBuilder searchRequest(String... params) {
+        Map<String, String> query = new HashMap<>(
+                Map.of("countryCode", "", "keyword", "", "tags", "", "pageNumber", "1"));
+        for (int i = 0; i < params.length; i += 2) {
+            query.put(params[i], params[i + 1]);
+        }
+        MockHttpServletRequestBuilder request = get("/api/videos");
+        query.forEach((name, value) -> request.param(name, value));
+        return request;
+    }
+
+    void prepareProfile(long accountId, String username, Date updatedAt) {
+        jdbcTemplate.update("insert into profile (account_id, country_code, username, updated_at) values (?, 'GB', ?, ?)",
+                accountId, username, updatedAt);
+    }
+
     long prepareAccount() {
-        Account account = new Account("email", "test123@gmail.com", "wait_verification", new Date(), null);
+        return prepareAccount("test123@gmail.com");
+    }
+
+    long prepareAccount(String email) {
+        Account account = new Account("email", email, "wait_verification", new Date(), null);
         account = accountRepository.save(account);
         return account.getId();
     }
@@ -0,0 +1,72 @@
+package com.kefang.backend;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Starts the extracted, ahead-of-time processed jar of the 'startup' profile
+ * with its class data sharing archive in a fresh JVM, and fails when the first
+ * successful /api/videos response takes longer than {@code startup.budget}
+ * from launching the JVM. Skipped outside of {@code mvn -Pstartup verify}.
+ */
+public class StartupTimeIT {
+
+    @Test
+    void testTimeToFirstSearch() throws Exception {
+        String application = System.getProperty("startup.application");
+        assumeTrue(application != null, "run through mvn -Pstartup verify");
+        Duration budget = Duration.parse(System.getProperty("startup.budget"));
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        ProcessBuilder builder = new ProcessBuilder("java", "-XX:SharedArchiveFile=application.jsa",
+                "-Dspring.aot.enabled=true", "-Dserver.port=" + port, "-jar", System.getProperty("startup.jar"))
+                .directory(new File(application))
+                .redirectErrorStream(true)
+                .redirectOutput(new File(application, "startup.log"));
+        builder.environment().putAll(Map.of(
+                "DATASOURCE_URL", System.getProperty("startup.datasource.url"),
+                "DATASOURCE_USER", System.getProperty("startup.datasource.username"),
+                "DATASOURCE_PASS", System.getProperty("startup.datasource.password")));
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+        HttpRequest search = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + port + "/api/videos?countryCode=&keyword=&tags=&pageSize=20"))
+                .build();
+        long start = System.nanoTime();
+        Process process = builder.start();
+        try {
+            long deadline = start + budget.multipliedBy(3).toNanos();
+            Duration elapsed = null;
+            while (elapsed == null && System.nanoTime() < deadline && process.isAlive()) {
+                try {
+                    if (client.send(search, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        elapsed = Duration.ofNanos(System.nanoTime() - start);
+                    }
+                } catch (IOException e) {
+                    Thread.sleep(20);
+                }
+            }
+            assertTrue(elapsed != null, "no successful search, see " + application + "/startup.log");
+            assertTrue(elapsed.compareTo(budget) <= 0,
+                    "first search took " + elapsed.toMillis() + " ms, over the budget of " + budget.toMillis() + " ms");
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+}
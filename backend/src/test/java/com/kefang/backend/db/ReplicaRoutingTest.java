@@ -0,0 +1,107 @@
+package com.kefang.backend.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Routes reads against the 'postgres' database of the test server standing in
+ * for a replica, which is told apart from the primary by its name.
+ */
+@SpringBootTest(properties = {
+        "datasource.replica.url=jdbc:postgresql://localhost:9999/postgres?sslmode=disable",
+        "datasource.replica.maximum-lag=PT0.2S", "tags.suggest.refresh-interval=PT1H" })
+public class ReplicaRoutingTest {
+
+    private static final String PRIMARY = "handihand_testing";
+
+    private static final String REPLICA = "postgres";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ReplicaRoutingDataSource routing;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primary;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replica;
+
+    @Test
+    void testReadOnlyTransactionsUseReplica() throws InterruptedException {
+        // past the hold after the changes announced on startup
+        Thread.sleep(300);
+        routing.checkLag();
+        assertTrue(routing.isReplicaUsable());
+        assertEquals(0, routing.lagSeconds(), "expect a server that is not a standby not to lag");
+
+        assertEquals(REPLICA, currentDatabase(transactionManager, jdbcTemplate, true));
+        assertEquals(PRIMARY, currentDatabase(transactionManager, jdbcTemplate, false));
+        assertEquals(PRIMARY, jdbcTemplate.queryForObject("select current_database()", String.class),
+                "expect reads outside of transactions to use the primary");
+    }
+
+    @Test
+    void testLaggingOrUnreachableReplicaBypassed() {
+        ReplicaRoutingDataSource lagging = new ReplicaRoutingDataSource(primary, replica, Duration.ofSeconds(-1));
+        ReplicaRoutingDataSource unreachable = new ReplicaRoutingDataSource(primary,
+                new DriverManagerDataSource("jdbc:postgresql://localhost:1/postgres", "postgres", "postgres"),
+                Duration.ofSeconds(5));
+        for (ReplicaRoutingDataSource bypassed : new ReplicaRoutingDataSource[] { lagging, unreachable }) {
+            bypassed.afterPropertiesSet();
+            bypassed.checkLag();
+            assertFalse(bypassed.isReplicaUsable());
+            DataSource dataSource = new LazyConnectionDataSourceProxy(bypassed);
+            assertEquals(PRIMARY, currentDatabase(new DataSourceTransactionManager(dataSource),
+                    new JdbcTemplate(dataSource), true));
+        }
+        assertTrue(Double.isNaN(unreachable.lagSeconds()));
+    }
+
+    @Test
+    void testReadsHeldOnPrimary() throws InterruptedException {
+        ReplicaRoutingDataSource held = new ReplicaRoutingDataSource(primary, replica, Duration.ofMillis(200));
+        held.afterPropertiesSet();
+        held.checkLag();
+        assertTrue(held.isReplicaUsable());
+        DataSource dataSource = new LazyConnectionDataSourceProxy(held);
+        PlatformTransactionManager heldTransactionManager = new DataSourceTransactionManager(dataSource);
+        JdbcTemplate heldJdbcTemplate = new JdbcTemplate(dataSource);
+
+        held.holdReads();
+        assertEquals(PRIMARY, currentDatabase(heldTransactionManager, heldJdbcTemplate, true));
+        Thread.sleep(300);
+        assertEquals(REPLICA, currentDatabase(heldTransactionManager, heldJdbcTemplate, true),
+                "expect reads back on the replica after the maximum lag");
+    }
+
+    private static String currentDatabase(PlatformTransactionManager transactionManager, JdbcTemplate jdbcTemplate,
+            boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(
+                status -> jdbcTemplate.queryForObject("select current_database()", String.class));
+    }
+}
@@ -0,0 +1,293 @@
+package com.kefang.backend.db.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kefang.backend.db.entity.Video;
+
+/**
+ * Checks the video search against the CTE/array_agg query it replaced.
+ */
+@SpringBootTest
+public class VideoSearchRepositoryTest {
+
+    private static final String LEGACY_QUERY = """
+            with filtered_videos as  (
+              select v.* from video v where upload_url is not null and thumbnail_url is not null and (?::text is null or ?::text = '' or ?::text = country_code) and (?::text is null or ?::text = '' or to_tsvector('english', coalesce(title, '') || ' ' || coalesce(description, '')) @@ plainto_tsquery(?::text))
+            ) , video_tags as (
+              select fv.id as video_id, vt.tag_id from filtered_videos fv left join video_tag vt on fv.id = vt.video_id
+            ) , video_agg_tags as (
+              select video_id, array_agg(tag_id) tag_ids from  video_tags group by video_id
+            ), filtered_video_ids as (
+              select video_id from video_agg_tags where ? ::integer[] is null or array_length(? ::integer[], 1) is null or ? ::integer[] && tag_ids
+            )
+            select fv.id from filtered_videos fv join filtered_video_ids fvi on fv.id = fvi.video_id order by fv.created_at desc limit ? offset ?
+            """;
+
+    private static final String[] COUNTRIES = { "GB", "US", "FR" };
+
+    private static final String[] WORDS = { "pottery", "knitting", "wood", "glass", "leather" };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    private List<Integer> tagIds;
+
+    @BeforeEach
+    public void prepareVideos() {
+        jdbcTemplate.execute("truncate table video_tag, video, profile, account restart identity cascade");
+        jdbcTemplate.update("insert into account (identity_type, identity_value, state) values ('email', 'search@test.com', 'verified')");
+        tagIds = jdbcTemplate.queryForList("select id from tag order by id limit 6", Integer.class);
+
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 60; ++i) {
+            boolean uploaded = random.nextInt(10) > 0;
+            String title = WORDS[random.nextInt(WORDS.length)] + " video " + i;
+            String description = random.nextBoolean() ? null : "all about " + WORDS[random.nextInt(WORDS.length)];
+            int videoId = jdbcTemplate.queryForObject(
+                    "insert into video (account_id, country_code, title, description, name, type, size, upload_url, thumbnail_url, created_at)"
+                            + " values (1, ?, ?, ?, ?, 'mp4', 1024, ?, ?, ?) returning id",
+                    Integer.class, COUNTRIES[random.nextInt(COUNTRIES.length)], title, description, "video" + i,
+                    uploaded ? "https://storage.cloud.google.com/video" + i + ".mp4" : null,
+                    "https://storage.cloud.google.com/video" + i + ".png", new Timestamp(now - i * 1000L));
+            for (Integer tagId : tagIds) {
+                if (random.nextInt(3) == 0) {
+                    jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)", videoId, tagId);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testSearchMatchesLegacyQuery() {
+        List<List<Integer>> tagSets = List.of(List.of(), List.of(tagIds.get(0)), tagIds.subList(1, 4),
+                List.of(tagIds.get(5), tagIds.get(2)));
+        for (String countryCode : new String[] { "", "GB", "FR" }) {
+            for (String keyword : new String[] { "", "pottery", "glass wood" }) {
+                for (List<Integer> tags : tagSets) {
+                    for (int skip : new int[] { 0, 5 }) {
+                        List<Long> expected = legacySearch(countryCode, keyword, tags, 10, skip);
+                        List<Long> actual = ids(videoRepository.search(
+                                VideoSearch.of(countryCode, keyword, tags).page(10, skip)));
+                        assertEquals(expected, actual, String.format("country=%s keyword=%s tags=%s skip=%d",
+                                countryCode, keyword, tags, skip));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testSearchMatchingAllTags() {
+        List<Integer> tags = tagIds.subList(0, 2);
+        List<Long> expected = jdbcTemplate.queryForList("""
+                select v.id from video v where upload_url is not null and thumbnail_url is not null
+                and exists (select 1 from video_tag vt where vt.video_id = v.id and vt.tag_id = ?)
+                and exists (select 1 from video_tag vt where vt.video_id = v.id and vt.tag_id = ?)
+                order by v.created_at desc
+                """, Long.class, tags.get(0), tags.get(1));
+        List<Long> actual = ids(
+                videoRepository.search(VideoSearch.of("", "", tags).matching(TagMatch.ALL).page(100, 0)));
+        assertFalse(expected.isEmpty(), "test data has no video with both tags");
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testKeywordPrefixAndRelevance() {
+        long titleMatch = insertVideo("Marbled paper", "a quick guide",
+                new Timestamp(System.currentTimeMillis() - 3_600_000));
+        long descriptionMatch = insertVideo("Paper", "marbling techniques", new Timestamp(System.currentTimeMillis()));
+
+        VideoSearch search = VideoSearch.of("", "marb", List.of()).page(10, 0);
+        assertEquals(List.of(descriptionMatch, titleMatch), ids(videoRepository.search(search)));
+        assertEquals(List.of(titleMatch, descriptionMatch),
+                ids(videoRepository.search(search.sortedBy(VideoSort.RELEVANCE))));
+        assertEquals(List.of(descriptionMatch, titleMatch),
+                ids(videoRepository.search(VideoSearch.of("", "marb & !(", List.of()).page(10, 0))),
+                "expect tsquery operators in the keyword to be ignored");
+        assertEquals(List.of(titleMatch),
+                ids(videoRepository.search(VideoSearch.of("", "pap marb gui", List.of()).page(10, 0))));
+    }
+
+    @Test
+    void testMaintainedCountsMatchRecount() {
+        jdbcTemplate.update("update video set country_code = 'US' where id % 7 = 0");
+        jdbcTemplate.update("update video set upload_url = null where id % 11 = 0");
+        jdbcTemplate.update("update video set upload_url = 'https://storage.cloud.google.com/late.mp4'"
+                + " where upload_url is null and id % 2 = 0");
+        jdbcTemplate.update("delete from video where id % 13 = 0");
+        jdbcTemplate.update("delete from video_tag where video_id % 5 = 0 and tag_id = ?", tagIds.get(1));
+        jdbcTemplate.update("insert into video_tag (video_id, tag_id) select id, ? from video where id % 3 = 0"
+                + " on conflict do nothing", tagIds.get(4));
+
+        assertEquals(recount(), maintainedCounts());
+    }
+
+    @Test
+    void testCountsKeptWhileTaggingVideoBeingListed() throws Exception {
+        long videoId = jdbcTemplate.queryForObject(
+                "select min(id) from video where upload_url is null and not exists"
+                        + " (select 1 from video_tag vt where vt.video_id = video.id and vt.tag_id = ?)",
+                Long.class, tagIds.get(5));
+        Thread tagging;
+        try (Connection listing = jdbcTemplate.getDataSource().getConnection()) {
+            listing.setAutoCommit(false);
+            try (Statement statement = listing.createStatement()) {
+                statement.executeUpdate("update video set upload_url = 'https://storage.cloud.google.com/late.mp4'"
+                        + " where id = " + videoId);
+            }
+            // neither transaction sees the other's change before it commits
+            tagging = new Thread(() -> jdbcTemplate.update("insert into video_tag (video_id, tag_id) values (?, ?)",
+                    videoId, tagIds.get(5)));
+            tagging.start();
+            tagging.join(200);
+            listing.commit();
+        }
+        tagging.join();
+        assertEquals(recount(), maintainedCounts());
+    }
+
+    @Test
+    void testFacetCounts() {
+        for (String countryCode : new String[] { "", "GB" }) {
+            for (List<Integer> tags : List.of(List.<Integer>of(), List.of(tagIds.get(0)), tagIds.subList(1, 3))) {
+                VideoSearch search = VideoSearch.of(countryCode, "", tags);
+                List<VideoCard> matches = videoRepository.search(search.page(100, 0));
+                String label = String.format("country=%s tags=%s", countryCode, tags);
+                assertEquals(matches.size(), videoRepository.countMatches(search, 100), label);
+                assertEquals(Math.min(matches.size(), 5), videoRepository.countMatches(search, 5), label);
+                if (tags.size() < 2) {
+                    assertEquals(matches.size(),
+                            videoRepository.countListed(countryCode, tags.isEmpty() ? null : tags.get(0)), label);
+                }
+                if (tags.isEmpty()) {
+                    assertEquals(videoRepository.countTagsOfMatches(search, 100, 3),
+                            videoRepository.countListedTags(countryCode, 3), label);
+                }
+            }
+        }
+        List<TagCount> newest = videoRepository.countTagsOfMatches(VideoSearch.of("", "", List.of()), 1, 10);
+        List<Long> newestTags = jdbcTemplate.queryForList("""
+                select count(*) from video_tag vt where vt.video_id = (select v.id from video v
+                where v.upload_url is not null and v.thumbnail_url is not null order by v.created_at desc limit 1)
+                """, Long.class);
+        assertEquals(newestTags.get(0).intValue(), newest.size(), "expect tags of the newest match only");
+    }
+
+    @Test
+    void testEngagementCountsAndOrder() {
+        for (int account = 2; account <= 4; ++account) {
+            jdbcTemplate.update("insert into account (identity_type, identity_value, state) values ('email', ?, 'verified')",
+                    "fan" + account + "@test.com");
+        }
+        jdbcTemplate.update("insert into likes (account_id, video_id) select a.id, v.id from account a, video v"
+                + " where v.id % (a.id + 1) = 0");
+        jdbcTemplate.update("insert into saves (account_id, video_id) select a.id, v.id from account a, video v"
+                + " where a.id <= 2 and v.id % 4 = 0");
+        jdbcTemplate.update("insert into comments (account_id, video_id, comment) select 1, v.id, 'nice' from video v"
+                + " where v.id % 3 = 0");
+        jdbcTemplate.update("insert into comments (account_id, comment_id, comment) select 2, c.id, 'agreed'"
+                + " from comments c");
+        jdbcTemplate.update("delete from likes where account_id = 3 and video_id % 8 = 0");
+        jdbcTemplate.update("delete from comments where video_id % 9 = 0");
+        jdbcTemplate.update("delete from video where id % 10 = 0");
+
+        String recount = """
+                select v.id || '/' || (select count(*) from likes l where l.video_id = v.id)
+                  || '/' || (select count(*) from saves s where s.video_id = v.id)
+                  || '/' || (select count(*) from comments c where c.video_id = v.id)
+                from video v order by v.id
+                """;
+        List<String> maintained = jdbcTemplate.queryForList(
+                "select video_id || '/' || likes || '/' || saves || '/' || comments from video_engagement order by video_id",
+                String.class);
+        assertEquals(jdbcTemplate.queryForList(recount, String.class), maintained);
+
+        List<Long> popular = jdbcTemplate.queryForList("""
+                select v.id from video v join video_engagement e on e.video_id = v.id
+                where v.upload_url is not null and v.thumbnail_url is not null and v.country_code = 'GB'
+                order by e.likes + 2 * e.saves + 3 * e.comments desc, v.id desc
+                """, Long.class);
+        VideoSearch search = VideoSearch.of("GB", "", List.of()).sortedBy(VideoSort.POPULAR);
+        assertEquals(popular, ids(videoRepository.search(search.page(100, 0))));
+        assertEquals(popular.subList(5, 10), ids(videoRepository.search(search.page(5, 5))));
+
+        long fresh = insertVideo("Fresh", null, new Timestamp(System.currentTimeMillis()));
+        long old = insertVideo("Old", null, new Timestamp(System.currentTimeMillis() - 3 * 86_400_000L));
+        jdbcTemplate.update("insert into likes (account_id, video_id) select a.id, ? from account a", old);
+        jdbcTemplate.update("insert into likes (account_id, video_id) values (1, ?)", fresh);
+        List<Long> byPopularity = ids(videoRepository.search(search.page(100, 0)));
+        List<Long> byTrend = ids(videoRepository.search(search.sortedBy(VideoSort.TRENDING).page(100, 0)));
+        assertTrue(byPopularity.indexOf(old) < byPopularity.indexOf(fresh));
+        assertTrue(byTrend.indexOf(fresh) < byTrend.indexOf(old),
+                "expect three days of age to outweigh a score four times as high");
+    }
+
+    /**
+     * Listed videos per country, in total and per tag, as country/tag/count.
+     */
+    private List<String> recount() {
+        return jdbcTemplate.queryForList("""
+                select coalesce(v.country_code, '') || '/0/' || count(*) from video v
+                where v.upload_url is not null and v.thumbnail_url is not null group by v.country_code
+                union all
+                select coalesce(v.country_code, '') || '/' || vt.tag_id || '/' || count(*)
+                from video v join video_tag vt on vt.video_id = v.id
+                where v.upload_url is not null and v.thumbnail_url is not null group by v.country_code, vt.tag_id
+                order by 1
+                """, String.class);
+    }
+
+    private List<String> maintainedCounts() {
+        return jdbcTemplate.queryForList(
+                "select country_code || '/' || tag_id || '/' || videos from video_count where videos <> 0 order by 1",
+                String.class);
+    }
+
+    private long insertVideo(String title, String description, Timestamp createdAt) {
+        return jdbcTemplate.queryForObject(
+                "insert into video (account_id, country_code, title, description, name, type, size, upload_url, thumbnail_url, created_at)"
+                        + " values (1, 'GB', ?, ?, 'video', 'mp4', 1024, 'https://storage.cloud.google.com/video.mp4',"
+                        + " 'https://storage.cloud.google.com/video.png', ?) returning id",
+                Long.class, title, description, createdAt);
+    }
+
+    private List<Long> legacySearch(String countryCode, String keyword, List<Integer> tags, int pageSize, int skip) {
+        Integer[] tagArray = tags.toArray(new Integer[0]);
+        return jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement(LEGACY_QUERY);
+            for (int i = 1; i <= 3; ++i) {
+                statement.setString(i, countryCode);
+                statement.setString(i + 3, keyword);
+                statement.setArray(i + 6, connection.createArrayOf("integer", tagArray));
+            }
+            statement.setInt(10, pageSize);
+            statement.setInt(11, skip);
+            return statement;
+        }, (rs, rowNum) -> rs.getLong(1));
+    }
+
+    private static List<Long> ids(List<VideoCard> videos) {
+        List<Long> ids = new ArrayList<>();
+        videos.forEach(video -> ids.add(video.id()));
+        return ids;
+    }
+}
@@ -0,0 +1,17 @@
+-- migrate:up transaction:false
+-- keyset pagination walks (created_at, id) in descending order, skipping
+-- videos whose upload has not completed yet
+create index concurrently if not exists idx_video_created_at_id on video using btree (created_at desc, id desc)
+where
+  upload_url is not null
+  and thumbnail_url is not null;
+
+create index concurrently if not exists idx_video_country_created_at_id on video using btree (country_code, created_at desc, id desc)
+where
+  upload_url is not null
+  and thumbnail_url is not null;
+
+-- migrate:down transaction:false
+drop index concurrently if exists idx_video_country_created_at_id;
+
+drop index concurrently if exists idx_video_created_at_id;
@@ -0,0 +1,7 @@
+-- migrate:up transaction:false
+-- drives the tag semi-join of the video search from the tag side; the
+-- primary key (video_id, tag_id) covers the lookup from the video side
+create index concurrently if not exists idx_video_tag_tag_id_video_id on video_tag using btree (tag_id, video_id);
+
+-- migrate:down transaction:false
+drop index concurrently if exists idx_video_tag_tag_id_video_id;
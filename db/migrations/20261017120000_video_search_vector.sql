@@ -0,0 +1,34 @@
+-- migrate:up transaction:false
+-- keep the weighted document of each video instead of recomputing it for
+-- every row the keyword search looks at; title terms rank above description
+--
+-- adding a stored generated column rewrites the whole table under an ACCESS
+-- EXCLUSIVE lock: reads and writes of 'video' wait for as long as the rewrite
+-- takes, which grows with the table, so run this in a maintenance window.
+-- The lock timeout makes it give up, rather than queue every query behind it,
+-- while a long transaction still holds the table; run it again then.
+set lock_timeout = '5s';
+
+alter table video
+add column if not exists search_vector tsvector generated always as (
+  setweight(to_tsvector('english', coalesce(title, '')), 'A') || setweight(to_tsvector('english', coalesce(description, '')), 'B')
+) stored;
+
+reset lock_timeout;
+
+create index concurrently if not exists idx_video_search_vector on video using gin (search_vector);
+
+drop index concurrently if exists idx_video_title_description;
+
+-- migrate:down transaction:false
+create index concurrently if not exists idx_video_title_description on video using gin (
+  to_tsvector(
+    'english',
+    coalesce(title, '') || ' ' || coalesce(description, '')
+  )
+);
+
+drop index concurrently if exists idx_video_search_vector;
+
+alter table video
+drop column if exists search_vector;
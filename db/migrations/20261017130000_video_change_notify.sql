@@ -0,0 +1,46 @@
+-- migrate:up
+-- announce committed changes to videos and their tags on the 'video_change'
+-- channel so that backend caches can drop exactly the entries they affect
+create or replace function notify_video_change() returns trigger as $$
+begin
+  if tg_op = 'TRUNCATE' then
+    perform pg_notify('video_change', json_build_object('truncated', true)::text);
+    return null;
+  end if;
+  if tg_table_name = 'video' then
+    perform pg_notify('video_change', json_build_object(
+      'videoId', coalesce(new.id, old.id),
+      'countryCode', coalesce(new.country_code, old.country_code),
+      'oldCountryCode', case when tg_op = 'UPDATE' then old.country_code end
+    )::text);
+  else
+    perform pg_notify('video_change', json_build_object(
+      'videoId', coalesce(new.video_id, old.video_id),
+      'tagId', coalesce(new.tag_id, old.tag_id),
+      'countryCode', (select v.country_code from video v where v.id = coalesce(new.video_id, old.video_id))
+    )::text);
+  end if;
+  return null;
+end;
+$$ language plpgsql;
+
+create trigger video_change_notify
+after insert or update or delete on video
+for each row execute function notify_video_change();
+
+create trigger video_truncate_notify
+after truncate on video
+for each statement execute function notify_video_change();
+
+create trigger video_tag_change_notify
+after insert or update or delete on video_tag
+for each row execute function notify_video_change();
+
+-- migrate:down
+drop trigger if exists video_tag_change_notify on video_tag;
+
+drop trigger if exists video_truncate_notify on video;
+
+drop trigger if exists video_change_notify on video;
+
+drop function if exists notify_video_change();
@@ -0,0 +1,20 @@
+-- migrate:up
+-- search results embed author profiles, so profile changes are announced on
+-- the 'video_change' channel too
+create or replace function notify_profile_change() returns trigger as $$
+begin
+  perform pg_notify('video_change', json_build_object(
+    'profileAccountId', coalesce(new.account_id, old.account_id)
+  )::text);
+  return null;
+end;
+$$ language plpgsql;
+
+create trigger profile_change_notify
+after insert or update or delete on profile
+for each row execute function notify_profile_change();
+
+-- migrate:down
+drop trigger if exists profile_change_notify on profile;
+
+drop function if exists notify_profile_change();
@@ -0,0 +1,109 @@
+-- migrate:up
+-- number of listed videos per country, in total (tag_id 0) and per tag, kept
+-- up to date by triggers so that search facets need not count matching rows;
+-- videos without a country are counted under ''
+create table video_count (
+  country_code text not null,
+  tag_id int not null,
+  videos int not null,
+  primary key (country_code, tag_id)
+);
+
+create function count_video(video_id int, country_code text, delta int) returns void as $$
+begin
+  insert into video_count (country_code, tag_id, videos)
+  select coalesce(count_video.country_code, ''), t.tag_id, delta
+  from (select 0 as tag_id union all select vt.tag_id from video_tag vt where vt.video_id = count_video.video_id) t
+  on conflict on constraint video_count_pkey do update set videos = video_count.videos + excluded.videos;
+end;
+$$ language plpgsql;
+
+-- runs before deletes, while the tags of the video still exist: they are
+-- deleted by the cascade afterwards, when the video no longer counts
+create function maintain_video_count() returns trigger as $$
+declare
+  was_listed boolean := tg_op <> 'INSERT' and old.upload_url is not null and old.thumbnail_url is not null;
+  is_listed boolean := tg_op <> 'DELETE' and new.upload_url is not null and new.thumbnail_url is not null;
+begin
+  if tg_op = 'UPDATE' and was_listed = is_listed and old.country_code is not distinct from new.country_code then
+    return new;
+  end if;
+  if was_listed then
+    perform count_video(old.id, old.country_code, -1);
+  end if;
+  if is_listed then
+    perform count_video(new.id, new.country_code, 1);
+  end if;
+  if tg_op = 'DELETE' then
+    return old;
+  end if;
+  return new;
+end;
+$$ language plpgsql;
+
+create function maintain_video_tag_count() returns trigger as $$
+begin
+  if tg_op = 'TRUNCATE' then
+    delete from video_count where tag_id <> 0 or tg_table_name = 'video';
+    return null;
+  end if;
+  if tg_op <> 'INSERT' then
+    update video_count c set videos = c.videos - 1
+    from video v
+    where v.id = old.video_id and v.upload_url is not null and v.thumbnail_url is not null
+      and c.country_code = coalesce(v.country_code, '') and c.tag_id = old.tag_id;
+  end if;
+  if tg_op <> 'DELETE' then
+    insert into video_count (country_code, tag_id, videos)
+    select coalesce(v.country_code, ''), new.tag_id, 1
+    from video v
+    where v.id = new.video_id and v.upload_url is not null and v.thumbnail_url is not null
+    on conflict on constraint video_count_pkey do update set videos = video_count.videos + 1;
+  end if;
+  return null;
+end;
+$$ language plpgsql;
+
+create trigger video_count_maintain
+before insert or update or delete on video
+for each row execute function maintain_video_count();
+
+create trigger video_count_truncate
+after truncate on video
+for each statement execute function maintain_video_tag_count();
+
+create trigger video_tag_count_maintain
+after insert or update or delete on video_tag
+for each row execute function maintain_video_tag_count();
+
+create trigger video_tag_count_truncate
+after truncate on video_tag
+for each statement execute function maintain_video_tag_count();
+
+insert into video_count (country_code, tag_id, videos)
+select coalesce(v.country_code, ''), 0, count(*)
+from video v
+where v.upload_url is not null and v.thumbnail_url is not null
+group by 1
+union all
+select coalesce(v.country_code, ''), vt.tag_id, count(*)
+from video v join video_tag vt on vt.video_id = v.id
+where v.upload_url is not null and v.thumbnail_url is not null
+group by 1, 2;
+
+-- migrate:down
+drop trigger if exists video_tag_count_truncate on video_tag;
+
+drop trigger if exists video_tag_count_maintain on video_tag;
+
+drop trigger if exists video_count_truncate on video;
+
+drop trigger if exists video_count_maintain on video;
+
+drop function if exists maintain_video_tag_count();
+
+drop function if exists maintain_video_count();
+
+drop function if exists count_video(int, text, int);
+
+drop table if exists video_count;
@@ -0,0 +1,100 @@
+-- migrate:up
+-- scores by which videos are ranked in popular and trending order: a save
+-- weighs two likes and a comment three; trending adds a day of age for every
+-- doubling of the score, so a video needs twice the engagement of one a day
+-- younger to stay ahead of it
+create function popularity_score(likes int, saves int, comments int) returns int as $$
+  select likes + 2 * saves + 3 * comments
+$$ language sql immutable;
+
+create function trending_score(popularity int, created_at timestamptz) returns double precision as $$
+  select log(2, 1 + popularity) + extract(epoch from created_at) / 86400
+$$ language sql immutable;
+
+-- engagement of every video, counted up and down by triggers on likes, saves
+-- and comments instead of being recounted
+create table video_engagement (
+  video_id int primary key,
+  created_at timestamptz not null,
+  likes int not null default 0,
+  saves int not null default 0,
+  comments int not null default 0,
+  popularity int generated always as (popularity_score(likes, saves, comments)) stored,
+  trending double precision generated always as (trending_score(popularity_score(likes, saves, comments), created_at)) stored,
+  foreign key (video_id) references video (id) on delete cascade
+);
+
+create index idx_video_engagement_popularity on video_engagement using btree (popularity desc, video_id desc);
+
+create index idx_video_engagement_trending on video_engagement using btree (trending desc, video_id desc);
+
+create function create_video_engagement() returns trigger as $$
+begin
+  insert into video_engagement (video_id, created_at)
+  select i.id, i.created_at from inserted i;
+  return null;
+end;
+$$ language plpgsql;
+
+create function count_engagement() returns trigger as $$
+declare
+  delta int := case when tg_op = 'INSERT' then 1 else -1 end;
+  video int := case when tg_op = 'INSERT' then new.video_id else old.video_id end;
+begin
+  if video is null then
+    -- a reply to a comment
+    return null;
+  end if;
+  if tg_table_name = 'likes' then
+    update video_engagement set likes = likes + delta where video_id = video;
+  elsif tg_table_name = 'saves' then
+    update video_engagement set saves = saves + delta where video_id = video;
+  else
+    update video_engagement set comments = comments + delta where video_id = video;
+  end if;
+  return null;
+end;
+$$ language plpgsql;
+
+create trigger video_engagement_create
+after insert on video
+referencing new table as inserted
+for each statement execute function create_video_engagement();
+
+create trigger likes_engagement_count
+after insert or delete on likes
+for each row execute function count_engagement();
+
+create trigger saves_engagement_count
+after insert or delete on saves
+for each row execute function count_engagement();
+
+create trigger comments_engagement_count
+after insert or delete on comments
+for each row execute function count_engagement();
+
+insert into video_engagement (video_id, created_at, likes, saves, comments)
+select v.id, v.created_at,
+  (select count(*) from likes l where l.video_id = v.id),
+  (select count(*) from saves s where s.video_id = v.id),
+  (select count(*) from comments c where c.video_id = v.id)
+from video v;
+
+-- migrate:down
+drop trigger if exists comments_engagement_count on comments;
+
+drop trigger if exists saves_engagement_count on saves;
+
+drop trigger if exists likes_engagement_count on likes;
+
+drop trigger if exists video_engagement_create on video;
+
+drop function if exists count_engagement();
+
+drop function if exists create_video_engagement();
+
+drop table if exists video_engagement;
+
+drop function if exists trending_score(int, timestamptz);
+
+drop function if exists popularity_score(int, int, int);
@@ -0,0 +1,52 @@
+-- migrate:up
+-- a tag added while another transaction lists, unlists or moves its video was
+-- counted by neither trigger: each read the other's row as before the change.
+-- Tag changes now lock their video first, so that one of the two waits for
+-- the other to commit and then reads its change
+create or replace function maintain_video_tag_count() returns trigger as $$
+begin
+  if tg_op = 'TRUNCATE' then
+    delete from video_count where tag_id <> 0 or tg_table_name = 'video';
+    return null;
+  end if;
+  perform 1 from video v where v.id in (old.video_id, new.video_id) order by v.id for share;
+  if tg_op <> 'INSERT' then
+    update video_count c set videos = c.videos - 1
+    from video v
+    where v.id = old.video_id and v.upload_url is not null and v.thumbnail_url is not null
+      and c.country_code = coalesce(v.country_code, '') and c.tag_id = old.tag_id;
+  end if;
+  if tg_op <> 'DELETE' then
+    insert into video_count (country_code, tag_id, videos)
+    select coalesce(v.country_code, ''), new.tag_id, 1
+    from video v
+    where v.id = new.video_id and v.upload_url is not null and v.thumbnail_url is not null
+    on conflict on constraint video_count_pkey do update set videos = video_count.videos + 1;
+  end if;
+  return null;
+end;
+$$ language plpgsql;
+
+-- migrate:down
+create or replace function maintain_video_tag_count() returns trigger as $$
+begin
+  if tg_op = 'TRUNCATE' then
+    delete from video_count where tag_id <> 0 or tg_table_name = 'video';
+    return null;
+  end if;
+  if tg_op <> 'INSERT' then
+    update video_count c set videos = c.videos - 1
+    from video v
+    where v.id = old.video_id and v.upload_url is not null and v.thumbnail_url is not null
+      and c.country_code = coalesce(v.country_code, '') and c.tag_id = old.tag_id;
+  end if;
+  if tg_op <> 'DELETE' then
+    insert into video_count (country_code, tag_id, videos)
+    select coalesce(v.country_code, ''), new.tag_id, 1
+    from video v
+    where v.id = new.video_id and v.upload_url is not null and v.thumbnail_url is not null
+    on conflict on constraint video_count_pkey do update set videos = video_count.videos + 1;
+  end if;
+  return null;
+end;
+$$ language plpgsql;
@@ -23,6 +23,191 @@ CREATE EXTENSION IF NOT EXISTS pgcrypto WITH SCHEMA public;
 COMMENT ON EXTENSION pgcrypto IS 'cryptographic functions';
 
 
+--
+-- Name: count_engagement(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.count_engagement() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+declare
+  delta int := case when tg_op = 'INSERT' then 1 else -1 end;
+  video int := case when tg_op = 'INSERT' then new.video_id else old.video_id end;
+begin
+  if video is null then
+    -- a reply to a comment
+    return null;
+  end if;
+  if tg_table_name = 'likes' then
+    update video_engagement set likes = likes + delta where video_id = video;
+  elsif tg_table_name = 'saves' then
+    update video_engagement set saves = saves + delta where video_id = video;
+  else
+    update video_engagement set comments = comments + delta where video_id = video;
+  end if;
+  return null;
+end;
+$$;
+
+
+--
+-- Name: count_video(integer, text, integer); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.count_video(video_id integer, country_code text, delta integer) RETURNS void
+    LANGUAGE plpgsql
+    AS $$
+begin
+  insert into video_count (country_code, tag_id, videos)
+  select coalesce(count_video.country_code, ''), t.tag_id, delta
+  from (select 0 as tag_id union all select vt.tag_id from video_tag vt where vt.video_id = count_video.video_id) t
+  on conflict on constraint video_count_pkey do update set videos = video_count.videos + excluded.videos;
+end;
+$$;
+
+
+--
+-- Name: create_video_engagement(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.create_video_engagement() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+begin
+  insert into video_engagement (video_id, created_at)
+  select i.id, i.created_at from inserted i;
+  return null;
+end;
+$$;
+
+
+--
+-- Name: maintain_video_count(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.maintain_video_count() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+declare
+  was_listed boolean := tg_op <> 'INSERT' and old.upload_url is not null and old.thumbnail_url is not null;
+  is_listed boolean := tg_op <> 'DELETE' and new.upload_url is not null and new.thumbnail_url is not null;
+begin
+  if tg_op = 'UPDATE' and was_listed = is_listed and old.country_code is not distinct from new.country_code then
+    return new;
+  end if;
+  if was_listed then
+    perform count_video(old.id, old.country_code, -1);
+  end if;
+  if is_listed then
+    perform count_video(new.id, new.country_code, 1);
+  end if;
+  if tg_op = 'DELETE' then
+    return old;
+  end if;
+  return new;
+end;
+$$;
+
+
+--
+-- Name: maintain_video_tag_count(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.maintain_video_tag_count() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+begin
+  if tg_op = 'TRUNCATE' then
+    delete from video_count where tag_id <> 0 or tg_table_name = 'video';
+    return null;
+  end if;
+  perform 1 from video v where v.id in (old.video_id, new.video_id) order by v.id for share;
+  if tg_op <> 'INSERT' then
+    update video_count c set videos = c.videos - 1
+    from video v
+    where v.id = old.video_id and v.upload_url is not null and v.thumbnail_url is not null
+      and c.country_code = coalesce(v.country_code, '') and c.tag_id = old.tag_id;
+  end if;
+  if tg_op <> 'DELETE' then
+    insert into video_count (country_code, tag_id, videos)
+    select coalesce(v.country_code, ''), new.tag_id, 1
+    from video v
+    where v.id = new.video_id and v.upload_url is not null and v.thumbnail_url is not null
+    on conflict on constraint video_count_pkey do update set videos = video_count.videos + 1;
+  end if;
+  return null;
+end;
+$$;
+
+
+--
+-- Name: notify_profile_change(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.notify_profile_change() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+begin
+  perform pg_notify('video_change', json_build_object(
+    'profileAccountId', coalesce(new.account_id, old.account_id)
+  )::text);
+  return null;
+end;
+$$;
+
+
+--
+-- Name: notify_video_change(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.notify_video_change() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+begin
+  if tg_op = 'TRUNCATE' then
+    perform pg_notify('video_change', json_build_object('truncated', true)::text);
+    return null;
+  end if;
+  if tg_table_name = 'video' then
+    perform pg_notify('video_change', json_build_object(
+      'videoId', coalesce(new.id, old.id),
+      'countryCode', coalesce(new.country_code, old.country_code),
+      'oldCountryCode', case when tg_op = 'UPDATE' then old.country_code end
+    )::text);
+  else
+    perform pg_notify('video_change', json_build_object(
+      'videoId', coalesce(new.video_id, old.video_id),
+      'tagId', coalesce(new.tag_id, old.tag_id),
+      'countryCode', (select v.country_code from video v where v.id = coalesce(new.video_id, old.video_id))
+    )::text);
+  end if;
+  return null;
+end;
+$$;
+
+
+--
+-- Name: popularity_score(integer, integer, integer); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.popularity_score(likes integer, saves integer, comments integer) RETURNS integer
+    LANGUAGE sql IMMUTABLE
+    AS $$
+  select likes + 2 * saves + 3 * comments
+$$;
+
+
+--
+-- Name: trending_score(integer, timestamp with time zone); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION public.trending_score(popularity integer, created_at timestamp with time zone) RETURNS double precision
+    LANGUAGE sql IMMUTABLE
+    AS $$
+  select log(2, 1 + popularity) + extract(epoch from created_at) / 86400
+$$;
+
+
 SET default_tablespace = '';
 
 SET default_table_access_method = heap;
@@ -346,7 +531,34 @@ CREATE TABLE public.video (
     upload_url text,
     thumbnail_url text,
     updated_at timestamp with time zone,
-    created_at timestamp with time zone DEFAULT now() NOT NULL
+    created_at timestamp with time zone DEFAULT now() NOT NULL,
+    search_vector tsvector GENERATED ALWAYS AS ((setweight(to_tsvector('english'::regconfig, COALESCE(title, ''::text)), 'A'::"char") || setweight(to_tsvector('english'::regconfig, COALESCE(description, ''::text)), 'B'::"char"))) STORED
+);
+
+
+--
+-- Name: video_count; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE public.video_count (
+    country_code text NOT NULL,
+    tag_id integer NOT NULL,
+    videos integer NOT NULL
+);
+
+
+--
+-- Name: video_engagement; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE public.video_engagement (
+    video_id integer NOT NULL,
+    created_at timestamp with time zone NOT NULL,
+    likes integer DEFAULT 0 NOT NULL,
+    saves integer DEFAULT 0 NOT NULL,
+    comments integer DEFAULT 0 NOT NULL,
+    popularity integer GENERATED ALWAYS AS (public.popularity_score(likes, saves, comments)) STORED,
+    trending double precision GENERATED ALWAYS AS (public.trending_score(public.popularity_score(likes, saves, comments), created_at)) STORED
 );
 
 
@@ -604,6 +816,22 @@ ALTER TABLE ONLY public.video
     ADD CONSTRAINT video_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: video_count video_count_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.video_count
+    ADD CONSTRAINT video_count_pkey PRIMARY KEY (country_code, tag_id);
+
+
+--
+-- Name: video_engagement video_engagement_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.video_engagement
+    ADD CONSTRAINT video_engagement_pkey PRIMARY KEY (video_id);
+
+
 --
 -- Name: video_tag video_tag_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -690,10 +918,129 @@ CREATE INDEX idx_video_country ON public.video USING btree (country_code);
 
 
 --
--- Name: idx_video_title_description; Type: INDEX; Schema: public; Owner: -
+-- Name: idx_video_country_created_at_id; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX idx_video_country_created_at_id ON public.video USING btree (country_code, created_at DESC, id DESC) WHERE ((upload_url IS NOT NULL) AND (thumbnail_url IS NOT NULL));
+
+
+--
+-- Name: idx_video_created_at_id; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX idx_video_created_at_id ON public.video USING btree (created_at DESC, id DESC) WHERE ((upload_url IS NOT NULL) AND (thumbnail_url IS NOT NULL));
+
+
+--
+-- Name: idx_video_engagement_popularity; Type: INDEX; Schema: public; Owner: -
 --
 
-CREATE INDEX idx_video_title_description ON public.video USING gin (to_tsvector('english'::regconfig, ((COALESCE(title, ''::text) || ' '::text) || COALESCE(description, ''::text))));
+CREATE INDEX idx_video_engagement_popularity ON public.video_engagement USING btree (popularity DESC, video_id DESC);
+
+
+--
+-- Name: idx_video_engagement_trending; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX idx_video_engagement_trending ON public.video_engagement USING btree (trending DESC, video_id DESC);
+
+
+--
+-- Name: idx_video_search_vector; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX idx_video_search_vector ON public.video USING gin (search_vector);
+
+
+--
+-- Name: idx_video_tag_tag_id_video_id; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX idx_video_tag_tag_id_video_id ON public.video_tag USING btree (tag_id, video_id);
+
+
+--
+-- Name: comments comments_engagement_count; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER comments_engagement_count AFTER INSERT OR DELETE ON public.comments FOR EACH ROW EXECUTE FUNCTION public.count_engagement();
+
+
+--
+-- Name: likes likes_engagement_count; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER likes_engagement_count AFTER INSERT OR DELETE ON public.likes FOR EACH ROW EXECUTE FUNCTION public.count_engagement();
+
+
+--
+-- Name: profile profile_change_notify; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER profile_change_notify AFTER INSERT OR DELETE OR UPDATE ON public.profile FOR EACH ROW EXECUTE FUNCTION public.notify_profile_change();
+
+
+--
+-- Name: saves saves_engagement_count; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER saves_engagement_count AFTER INSERT OR DELETE ON public.saves FOR EACH ROW EXECUTE FUNCTION public.count_engagement();
+
+
+--
+-- Name: video video_change_notify; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_change_notify AFTER INSERT OR DELETE OR UPDATE ON public.video FOR EACH ROW EXECUTE FUNCTION public.notify_video_change();
+
+
+--
+-- Name: video video_count_maintain; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_count_maintain BEFORE INSERT OR DELETE OR UPDATE ON public.video FOR EACH ROW EXECUTE FUNCTION public.maintain_video_count();
+
+
+--
+-- Name: video video_count_truncate; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_count_truncate AFTER TRUNCATE ON public.video FOR EACH STATEMENT EXECUTE FUNCTION public.maintain_video_tag_count();
+
+
+--
+-- Name: video video_engagement_create; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_engagement_create AFTER INSERT ON public.video REFERENCING NEW TABLE AS inserted FOR EACH STATEMENT EXECUTE FUNCTION public.create_video_engagement();
+
+
+--
+-- Name: video_tag video_tag_change_notify; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_tag_change_notify AFTER INSERT OR DELETE OR UPDATE ON public.video_tag FOR EACH ROW EXECUTE FUNCTION public.notify_video_change();
+
+
+--
+-- Name: video_tag video_tag_count_maintain; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_tag_count_maintain AFTER INSERT OR DELETE OR UPDATE ON public.video_tag FOR EACH ROW EXECUTE FUNCTION public.maintain_video_tag_count();
+
+
+--
+-- Name: video_tag video_tag_count_truncate; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_tag_count_truncate AFTER TRUNCATE ON public.video_tag FOR EACH STATEMENT EXECUTE FUNCTION public.maintain_video_tag_count();
+
+
+--
+-- Name: video video_truncate_notify; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER video_truncate_notify AFTER TRUNCATE ON public.video FOR EACH STATEMENT EXECUTE FUNCTION public.notify_video_change();
 
 
 --
@@ -784,6 +1131,14 @@ ALTER TABLE ONLY public.verification
     ADD CONSTRAINT verification_session_fkey FOREIGN KEY (session) REFERENCES public.session(session) ON DELETE CASCADE;
 
 
+--
+-- Name: video_engagement video_engagement_video_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.video_engagement
+    ADD CONSTRAINT video_engagement_video_id_fkey FOREIGN KEY (video_id) REFERENCES public.video(id) ON DELETE CASCADE;
+
+
 --
 -- Name: video_tag video_tag_tag_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -810,4 +1165,12 @@ ALTER TABLE ONLY public.video_tag
 --
 
 INSERT INTO public.schema_migrations (version) VALUES
-    ('20240711145137');
+    ('20240711145137'),
+    ('20261017100000'),
+    ('20261017110000'),
+    ('20261017120000'),
+    ('20261017130000'),
+    ('20261017140000'),
+    ('20261017150000'),
+    ('20261018100000'),
+    ('20261018110000');